@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import java.util.Arrays;
+
+/**
+ * The results of a batch of queries from {@link World#queryRects(float[], int, CollisionFilter, BatchResult)},
+ * {@link World#queryPoints(float[], int, CollisionFilter, BatchResult)} or {@link ParallelQueries}, packed into flat
+ * arrays. The items found by query i are {@code items[offsets[i]]} up to but not including
+ * {@code items[offsets[i + 1]]}, in the order the method that filled it describes, and {@link #handles} holds the handle
+ * of each of those items at the same index.
+ * <br>
+ * A BatchResult can be reused for any number of batches; its arrays only grow.
+ */
+public class BatchResult {
+  /**
+   * How many queries were in the last batch.
+   */
+  public int queryCount;
+  /**
+   * Where the results of each query start; offsets[queryCount] is the total number of results.
+   */
+  public int[] offsets = new int[1];
+  public int[] handles = new int[16];
+  public Item[] items = new Item[16];
+
+  /**
+   * Returns the total number of results over all queries.
+   */
+  public int size() {
+    return offsets[queryCount];
+  }
+
+  /**
+   * Returns the number of items found by the given query.
+   */
+  public int size(int query) {
+    return offsets[query + 1] - offsets[query];
+  }
+
+  /**
+   * Returns the index-th item found by the given query.
+   */
+  public Item get(int query, int index) {
+    return items[offsets[query] + index];
+  }
+
+  void begin(int queryCount, int capacity) {
+    this.queryCount = queryCount;
+    if (offsets.length < queryCount + 1) {
+      offsets = new int[queryCount + 1];
+    }
+    if (handles.length < capacity) {
+      handles = new int[capacity];
+    }
+    if (items.length < capacity) {
+      items = new Item[capacity];
+    }
+  }
+
+  /**
+   * Grows handles and items to hold at least capacity results, keeping the ones already there.
+   */
+  void ensureCapacity(int capacity) {
+    if (handles.length < capacity) {
+      int size = Math.max(capacity, handles.length * 2);
+      handles = Arrays.copyOf(handles, size);
+      items = Arrays.copyOf(items, size);
+    }
+  }
+
+  /**
+   * Drops the references to every item, so the last batch doesn't keep them from being collected.
+   */
+  public void clear() {
+    Arrays.fill(items, null);
+    Arrays.fill(offsets, 0);
+    queryCount = 0;
+  }
+}
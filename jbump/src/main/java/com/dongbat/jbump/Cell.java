@@ -15,7 +15,7 @@
  */
 package com.dongbat.jbump;
 
-import com.dongbat.jbump.util.ObjectSet;
+import com.dongbat.jbump.util.SmallIntSet;
 
 /**
  *
@@ -29,15 +29,15 @@ public class Cell {
    */
   protected final int identityHash;
   /**
-   * Stores the Item values in this Cell.
+   * Stores the handles of the items in this Cell; {@link World#getItem(int)} turns a handle back into its Item.
    * <br>
-   * This uses a different implementation of Set than usual; {@link ObjectSet} reuses its iterators where HashSet does
-   * not, and in general uses less memory. Avoiding GC pressure is important in games, especially those that target
-   * mobile or web platforms, and JBump iterates over these items fairly often, so we don't want to create many
-   * Iterators without needing to. ObjectSet doesn't support nested iteration over the same Set, so that is something to
-   * be aware of. This was a HashSet, but ObjectSet implements about the same API.
+   * Most cells hold only one or two items, so this is a {@link SmallIntSet}, which keeps a handful of handles in a
+   * small array and only switches to a hash set when a cell gets crowded. Adding and removing items never boxes, and
+   * only allocates when the set has to grow or switch. Avoiding GC pressure is important in games, especially those
+   * that target mobile or web platforms, and JBump iterates over these items fairly often, so SmallIntSet reuses its
+   * iterators; it doesn't support nested iteration over the same set.
    */
-  public ObjectSet<Item> items = new ObjectSet<Item>(11);
+  public SmallIntSet items;
 
   /**
    * Constructs a Cell with a position of 0,0 and no items (it will be empty).
@@ -45,7 +45,15 @@ public class Cell {
    * If you subclass Cell, you should call {@code super()} so the cached identity hash code is stored correctly.
    */
   public Cell() {
+    this(new SmallIntSet());
+  }
+
+  /**
+   * Constructs a Cell with a position of 0,0 that keeps its items in the given set, which should be empty.
+   */
+  public Cell(SmallIntSet items) {
     identityHash = System.identityHashCode(this);
+    this.items = items;
   }
 
   @Override
@@ -178,8 +178,8 @@ public class Collisions implements Comparator<Integer> {
     types.clear();
   }
 
-  private final ArrayList<Integer> order = new ArrayList<Integer>();
   private final IntIntMap swapMap = new IntIntMap();
+  private int[] order = new int[16], orderScratch = new int[16], swaps = new int[16];
 
   public void keySort(
     final List<Integer> indices, List<?> list) {
@@ -249,35 +249,96 @@ public class Collisions implements Comparator<Integer> {
     }
   }
 
+  /**
+   * Sorts the collisions by when they happen along the move, the nearest first among those that happen at once. The sort
+   * is stable and works on primitive arrays, so it doesn't allocate once the arrays are big enough.
+   */
   public void sort() {
-    order.clear();
+    int size = this.size;
+    if (order.length < size) {
+      int length = Math.max(size, order.length * 2);
+      order = new int[length];
+      orderScratch = new int[length];
+      swaps = new int[length];
+    }
+    int[] order = this.order, swaps = this.swaps;
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    sortOrder(order, orderScratch, 0, size);
+    // the same series of swaps keySort would make, worked out once for all the columns
+    for (int i = 0; i < size; i++) {
+      int k = order[i];
+      while (k < i) {
+        k = swaps[k];
+      }
+      swaps[i] = k;
+    }
     for (int i = 0; i < size; i++) {
-      order.add(i);
+      int k = swaps[i];
+      if (k == i) {
+        continue;
+      }
+      overlaps.swap(i, k);
+      tis.swap(i, k);
+      moveXs.swap(i, k);
+      moveYs.swap(i, k);
+      normalXs.swap(i, k);
+      normalYs.swap(i, k);
+      touchXs.swap(i, k);
+      touchYs.swap(i, k);
+      x1s.swap(i, k);
+      y1s.swap(i, k);
+      w1s.swap(i, k);
+      h1s.swap(i, k);
+      x2s.swap(i, k);
+      y2s.swap(i, k);
+      w2s.swap(i, k);
+      h2s.swap(i, k);
+      Collections.swap(items, i, k);
+      Collections.swap(others, i, k);
+      Collections.swap(types, i, k);
+    }
+  }
+
+  /**
+   * Stable merge sort of order[lo] up to but not including order[hi], with insertion sort for short runs.
+   */
+  private void sortOrder(int[] order, int[] scratch, int lo, int hi) {
+    if (hi - lo < 8) {
+      for (int i = lo + 1; i < hi; i++) {
+        int index = order[i];
+        int j = i - 1;
+        while (j >= lo && compare(order[j], index) > 0) {
+          order[j + 1] = order[j];
+          j--;
+        }
+        order[j + 1] = index;
+      }
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    sortOrder(order, scratch, lo, mid);
+    sortOrder(order, scratch, mid, hi);
+    if (compare(order[mid - 1], order[mid]) <= 0) {
+      return;
+    }
+    System.arraycopy(order, lo, scratch, lo, hi - lo);
+    for (int i = lo, left = lo, right = mid; i < hi; i++) {
+      if (right >= hi || left < mid && compare(scratch[left], scratch[right]) <= 0) {
+        order[i] = scratch[left++];
+      } else {
+        order[i] = scratch[right++];
+      }
     }
-    Collections.sort(order, this);
-    keySort(order, overlaps);
-    keySort(order, tis);
-    keySort(order, moveXs);
-    keySort(order, moveYs);
-    keySort(order, normalXs);
-    keySort(order, normalYs);
-    keySort(order, touchXs);
-    keySort(order, touchYs);
-    keySort(order, x1s);
-    keySort(order, y1s);
-    keySort(order, w1s);
-    keySort(order, h1s);
-    keySort(order, x2s);
-    keySort(order, y2s);
-    keySort(order, w2s);
-    keySort(order, h2s);
-    keySort(order, items);
-    keySort(order, others);
-    keySort(order, types);
   }
 
   @Override
   public int compare(Integer a, Integer b) {
+    return compare(a.intValue(), b.intValue());
+  }
+
+  private int compare(int a, int b) {
     if (tis.get(a) == (tis.get(b))) {
 
       float ad = rect_getSquareDistance(x1s.get(a), y1s.get(a), w1s.get(a), h1s.get(a), x2s.get(a), y2s.get(a), w2s.get(a), h2s.get(a));
@@ -0,0 +1,660 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import com.dongbat.jbump.util.IntArray;
+import com.dongbat.jbump.util.UniqueIntArray;
+
+import java.util.Arrays;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * A dynamic AABB tree (a bounding volume hierarchy), usable as the {@link SpatialIndex} of a {@link World} instead of
+ * the default {@link GridIndex}. Each item is stored exactly once, in a leaf, no matter how big it is, so a world that
+ * mixes huge items (bosses, level triggers) with tiny ones (bullets) doesn't pay for inserting the huge ones into
+ * hundreds of cells, and the tiny ones don't have to share cells with dozens of others.
+ * <br>
+ * Leaves store a "fat" rectangle, grown by a margin on every side and stretched in the direction the item last moved.
+ * Moving an item within its fat rectangle costs nothing; once it leaves it, the leaf is reinserted and the bounds of
+ * its ancestors are refit on the way back up, with the same rotations an AVL tree uses to keep it balanced. This
+ * follows the dynamic tree from Box2D by Erin Catto.
+ * <br>
+ * Nodes are kept in parallel arrays indexed by node id, and the tree never allocates except when those arrays grow.
+ */
+public class DynamicTreeIndex implements SpatialIndex {
+  private static final int NULL = -1;
+  /**
+   * How many frames of movement the fat rectangle of a reinserted leaf is stretched by, in the direction it moved.
+   */
+  private static final float PREDICTION = 4;
+
+  private final float margin;
+  private int root = NULL;
+  private int nodeCapacity;
+  private int freeList = NULL;
+
+  private float[] minXs, minYs, maxXs, maxYs;
+  /**
+   * The parent of each node, or for a node in the free list, the next free node.
+   */
+  private int[] parents;
+  private int[] child1s, child2s;
+  /**
+   * Leaves have height 0, and free nodes -1.
+   */
+  private int[] heights;
+  /**
+   * The handle of the item in each leaf.
+   */
+  private int[] handles;
+
+  /**
+   * The leaf of each handle, or {@link #NULL} for a handle that isn't in the tree.
+   */
+  private int[] leaves = new int[16];
+
+  /**
+   * Creates a tree whose leaves are grown by 4 units on each side, which suits worlds measured in pixels.
+   */
+  public DynamicTreeIndex() {
+    this(4f);
+  }
+
+  /**
+   * @param margin how far each leaf's rectangle is grown on every side; items can move this far without changing the
+   *               tree. Larger margins make updates cheaper and queries a little less selective. Use something close
+   *               to how far a typical item moves in a frame.
+   */
+  public DynamicTreeIndex(float margin) {
+    if (margin < 0) {
+      throw new IllegalArgumentException("margin must be >= 0: " + margin);
+    }
+    this.margin = margin;
+    allocateArrays(16);
+    Arrays.fill(leaves, NULL);
+  }
+
+  public float getMargin() {
+    return margin;
+  }
+
+  /**
+   * Returns the height of the tree, which is 0 for an empty tree or one with a single item.
+   */
+  public int getHeight() {
+    return root == NULL ? 0 : heights[root];
+  }
+
+  private void allocateArrays(int capacity) {
+    int oldCapacity = nodeCapacity;
+    nodeCapacity = capacity;
+    if (oldCapacity == 0) {
+      minXs = new float[capacity];
+      minYs = new float[capacity];
+      maxXs = new float[capacity];
+      maxYs = new float[capacity];
+      parents = new int[capacity];
+      child1s = new int[capacity];
+      child2s = new int[capacity];
+      heights = new int[capacity];
+      handles = new int[capacity];
+    } else {
+      minXs = Arrays.copyOf(minXs, capacity);
+      minYs = Arrays.copyOf(minYs, capacity);
+      maxXs = Arrays.copyOf(maxXs, capacity);
+      maxYs = Arrays.copyOf(maxYs, capacity);
+      parents = Arrays.copyOf(parents, capacity);
+      child1s = Arrays.copyOf(child1s, capacity);
+      child2s = Arrays.copyOf(child2s, capacity);
+      heights = Arrays.copyOf(heights, capacity);
+      handles = Arrays.copyOf(handles, capacity);
+    }
+    // link the new nodes into the free list
+    for (int i = oldCapacity; i < capacity - 1; i++) {
+      parents[i] = i + 1;
+      heights[i] = -1;
+    }
+    parents[capacity - 1] = freeList;
+    heights[capacity - 1] = -1;
+    freeList = oldCapacity;
+  }
+
+  private int allocateNode() {
+    if (freeList == NULL) {
+      allocateArrays(nodeCapacity << 1);
+    }
+    int node = freeList;
+    freeList = parents[node];
+    parents[node] = NULL;
+    child1s[node] = NULL;
+    child2s[node] = NULL;
+    heights[node] = 0;
+    handles[node] = NULL;
+    return node;
+  }
+
+  private void freeNode(int node) {
+    parents[node] = freeList;
+    heights[node] = -1;
+    handles[node] = NULL;
+    freeList = node;
+  }
+
+  private boolean isLeaf(int node) {
+    return child1s[node] == NULL;
+  }
+
+  private void setFatRect(int node, float x, float y, float w, float h) {
+    minXs[node] = x - margin;
+    minYs[node] = y - margin;
+    maxXs[node] = x + w + margin;
+    maxYs[node] = y + h + margin;
+  }
+
+  private void setUnion(int node, int a, int b) {
+    minXs[node] = min(minXs[a], minXs[b]);
+    minYs[node] = min(minYs[a], minYs[b]);
+    maxXs[node] = max(maxXs[a], maxXs[b]);
+    maxYs[node] = max(maxYs[a], maxYs[b]);
+  }
+
+  private float perimeter(int node) {
+    return maxXs[node] - minXs[node] + maxYs[node] - minYs[node];
+  }
+
+  private float unionPerimeter(int a, int b) {
+    return max(maxXs[a], maxXs[b]) - min(minXs[a], minXs[b]) + max(maxYs[a], maxYs[b]) - min(minYs[a], minYs[b]);
+  }
+
+  @Override
+  public void add(int handle, float x, float y, float w, float h) {
+    int node = allocateNode();
+    setFatRect(node, x, y, w, h);
+    handles[node] = handle;
+    insertLeaf(node);
+    if (handle >= leaves.length) {
+      int oldLength = leaves.length;
+      leaves = Arrays.copyOf(leaves, Math.max(handle + 1, oldLength << 1));
+      Arrays.fill(leaves, oldLength, leaves.length, NULL);
+    }
+    leaves[handle] = node;
+  }
+
+  @Override
+  public void remove(int handle, float x, float y, float w, float h) {
+    int node = handle < leaves.length ? leaves[handle] : NULL;
+    if (node == NULL) {
+      return;
+    }
+    leaves[handle] = NULL;
+    removeLeaf(node);
+    freeNode(node);
+  }
+
+  @Override
+  public void update(int handle, float x1, float y1, float w1, float h1, float x2, float y2, float w2, float h2) {
+    int node = handle < leaves.length ? leaves[handle] : NULL;
+    if (node == NULL) {
+      return;
+    }
+    float right = x2 + w2, bottom = y2 + h2;
+    // predict where the item is going, so that items moving steadily don't need reinserting every frame
+    float dx = PREDICTION * (x2 - x1), dy = PREDICTION * (y2 - y1);
+    float fatMinX = x2 - margin + min(dx, 0), fatMinY = y2 - margin + min(dy, 0);
+    float fatMaxX = right + margin + max(dx, 0), fatMaxY = bottom + margin + max(dy, 0);
+    if (minXs[node] <= x2 && minYs[node] <= y2 && maxXs[node] >= right && maxYs[node] >= bottom) {
+      // still inside the fat rectangle; only reinsert if it is much bigger than the item needs now, such as after the
+      // item stopped moving or shrank
+      float slack = 8 * margin;
+      if (maxXs[node] - minXs[node] <= fatMaxX - fatMinX + slack && maxYs[node] - minYs[node] <= fatMaxY - fatMinY + slack) {
+        return;
+      }
+    }
+    removeLeaf(node);
+    minXs[node] = fatMinX;
+    minYs[node] = fatMinY;
+    maxXs[node] = fatMaxX;
+    maxYs[node] = fatMaxY;
+    insertLeaf(node);
+  }
+
+  @Override
+  public void clear() {
+    root = NULL;
+    Arrays.fill(leaves, NULL);
+    for (int i = 0; i < nodeCapacity - 1; i++) {
+      parents[i] = i + 1;
+      heights[i] = -1;
+    }
+    parents[nodeCapacity - 1] = NULL;
+    heights[nodeCapacity - 1] = -1;
+    freeList = 0;
+  }
+
+  /**
+   * Does nothing; the node arrays keep their size, since nodes that are still in use may be anywhere in them.
+   */
+  @Override
+  public void compact() {
+  }
+
+  private void insertLeaf(int leaf) {
+    if (root == NULL) {
+      root = leaf;
+      parents[root] = NULL;
+      return;
+    }
+
+    // find the best sibling for this leaf, using the perimeter as the cost of a node
+    int index = root;
+    while (!isLeaf(index)) {
+      int child1 = child1s[index];
+      int child2 = child2s[index];
+
+      float perimeter = perimeter(index);
+      float combinedPerimeter = unionPerimeter(index, leaf);
+
+      // cost of creating a new parent for this node and the new leaf
+      float cost = 2 * combinedPerimeter;
+      // minimum cost of pushing the leaf further down the tree
+      float inheritanceCost = 2 * (combinedPerimeter - perimeter);
+
+      float cost1 = unionPerimeter(leaf, child1) + inheritanceCost;
+      if (!isLeaf(child1)) {
+        cost1 -= perimeter(child1);
+      }
+      float cost2 = unionPerimeter(leaf, child2) + inheritanceCost;
+      if (!isLeaf(child2)) {
+        cost2 -= perimeter(child2);
+      }
+
+      if (cost < cost1 && cost < cost2) {
+        break;
+      }
+      index = cost1 < cost2 ? child1 : child2;
+    }
+    int sibling = index;
+
+    // create a new parent
+    int oldParent = parents[sibling];
+    int newParent = allocateNode();
+    parents[newParent] = oldParent;
+    setUnion(newParent, leaf, sibling);
+    heights[newParent] = heights[sibling] + 1;
+
+    if (oldParent != NULL) {
+      if (child1s[oldParent] == sibling) {
+        child1s[oldParent] = newParent;
+      } else {
+        child2s[oldParent] = newParent;
+      }
+    } else {
+      root = newParent;
+    }
+    child1s[newParent] = sibling;
+    child2s[newParent] = leaf;
+    parents[sibling] = newParent;
+    parents[leaf] = newParent;
+
+    refitFrom(parents[leaf]);
+  }
+
+  private void removeLeaf(int leaf) {
+    if (leaf == root) {
+      root = NULL;
+      return;
+    }
+    int parent = parents[leaf];
+    int grandParent = parents[parent];
+    int sibling = child1s[parent] == leaf ? child2s[parent] : child1s[parent];
+
+    if (grandParent != NULL) {
+      // destroy the parent and connect the sibling to the grandparent
+      if (child1s[grandParent] == parent) {
+        child1s[grandParent] = sibling;
+      } else {
+        child2s[grandParent] = sibling;
+      }
+      parents[sibling] = grandParent;
+      freeNode(parent);
+      refitFrom(grandParent);
+    } else {
+      root = sibling;
+      parents[sibling] = NULL;
+      freeNode(parent);
+    }
+  }
+
+  /**
+   * Walks from index up to the root, rebalancing and refitting the bounds and height of every node on the way.
+   */
+  private void refitFrom(int index) {
+    while (index != NULL) {
+      index = balance(index);
+      int child1 = child1s[index];
+      int child2 = child2s[index];
+      heights[index] = 1 + max(heights[child1], heights[child2]);
+      setUnion(index, child1, child2);
+      index = parents[index];
+    }
+  }
+
+  /**
+   * Performs a left or right rotation if node a is imbalanced.
+   * @return the new root of the subtree that a was the root of
+   */
+  private int balance(int a) {
+    if (isLeaf(a) || heights[a] < 2) {
+      return a;
+    }
+    int b = child1s[a];
+    int c = child2s[a];
+    int balance = heights[c] - heights[b];
+
+    // rotate c up
+    if (balance > 1) {
+      int f = child1s[c];
+      int g = child2s[c];
+
+      child1s[c] = a;
+      parents[c] = parents[a];
+      parents[a] = c;
+
+      if (parents[c] != NULL) {
+        if (child1s[parents[c]] == a) {
+          child1s[parents[c]] = c;
+        } else {
+          child2s[parents[c]] = c;
+        }
+      } else {
+        root = c;
+      }
+
+      if (heights[f] > heights[g]) {
+        child2s[c] = f;
+        child2s[a] = g;
+        parents[g] = a;
+        setUnion(a, b, g);
+        setUnion(c, a, f);
+        heights[a] = 1 + max(heights[b], heights[g]);
+        heights[c] = 1 + max(heights[a], heights[f]);
+      } else {
+        child2s[c] = g;
+        child2s[a] = f;
+        parents[f] = a;
+        setUnion(a, b, f);
+        setUnion(c, a, g);
+        heights[a] = 1 + max(heights[b], heights[f]);
+        heights[c] = 1 + max(heights[a], heights[g]);
+      }
+      return c;
+    }
+
+    // rotate b up
+    if (balance < -1) {
+      int d = child1s[b];
+      int e = child2s[b];
+
+      child1s[b] = a;
+      parents[b] = parents[a];
+      parents[a] = b;
+
+      if (parents[b] != NULL) {
+        if (child1s[parents[b]] == a) {
+          child1s[parents[b]] = b;
+        } else {
+          child2s[parents[b]] = b;
+        }
+      } else {
+        root = b;
+      }
+
+      if (heights[d] > heights[e]) {
+        child2s[b] = d;
+        child1s[a] = e;
+        parents[e] = a;
+        setUnion(a, c, e);
+        setUnion(b, a, d);
+        heights[a] = 1 + max(heights[c], heights[e]);
+        heights[b] = 1 + max(heights[a], heights[d]);
+      } else {
+        child2s[b] = e;
+        child1s[a] = d;
+        parents[d] = a;
+        setUnion(a, c, d);
+        setUnion(b, a, e);
+        heights[a] = 1 + max(heights[c], heights[d]);
+        heights[b] = 1 + max(heights[a], heights[e]);
+      }
+      return b;
+    }
+    return a;
+  }
+
+  private static int push(QueryContext context, int top, int node) {
+    int[] stack = context.stack;
+    if (top == stack.length) {
+      context.stack = stack = Arrays.copyOf(stack, top << 1);
+    }
+    stack[top] = node;
+    return top + 1;
+  }
+
+  @Override
+  public void queryRect(float x, float y, float w, float h, UniqueIntArray result, QueryContext context) {
+    if (root == NULL) {
+      return;
+    }
+    float right = x + w, bottom = y + h;
+    int base = context.stackTop, top = push(context, base, root);
+    while (top > base) {
+      int node = context.stack[--top];
+      if (minXs[node] > right || maxXs[node] < x || minYs[node] > bottom || maxYs[node] < y) {
+        continue;
+      }
+      if (isLeaf(node)) {
+        result.add(handles[node]);
+      } else {
+        top = push(context, top, child1s[node]);
+        top = push(context, top, child2s[node]);
+      }
+    }
+  }
+
+  @Override
+  public void queryPoint(float x, float y, UniqueIntArray result, QueryContext context) {
+    queryRect(x, y, 0, 0, result, context);
+  }
+
+  @Override
+  public boolean queryRect(float x, float y, float w, float h, QueryCallback callback, QueryContext context) {
+    if (root == NULL) {
+      return true;
+    }
+    float right = x + w, bottom = y + h;
+    int base = context.stackTop, top = push(context, base, root);
+    while (top > base) {
+      int node = context.stack[--top];
+      if (minXs[node] > right || maxXs[node] < x || minYs[node] > bottom || maxYs[node] < y) {
+        continue;
+      }
+      if (isLeaf(node)) {
+        // a query started from the callback pushes its nodes above those still pending here
+        context.stackTop = top;
+        boolean more;
+        try {
+          more = callback.reportCandidate(handles[node]);
+        } finally {
+          context.stackTop = base;
+        }
+        if (!more) {
+          return false;
+        }
+      } else {
+        top = push(context, top, child1s[node]);
+        top = push(context, top, child2s[node]);
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean queryPoint(float x, float y, QueryCallback callback, QueryContext context) {
+    return queryRect(x, y, 0, 0, callback, context);
+  }
+
+  @Override
+  public void querySegment(float x1, float y1, float x2, float y2, UniqueIntArray result, QueryContext context) {
+    raycast(x1, y1, x2 - x1, y2 - y1, 1, result, context);
+  }
+
+  @Override
+  public void queryRay(float originX, float originY, float dirX, float dirY, UniqueIntArray result, QueryContext context) {
+    raycast(originX, originY, dirX, dirY, Float.MAX_VALUE, result, context);
+  }
+
+  @Override
+  public void querySweptRect(float x, float y, float w, float h, float goalX, float goalY, UniqueIntArray result, QueryContext context) {
+    if (root == NULL) {
+      return;
+    }
+    float dx = goalX - x, dy = goalY - y;
+    int base = context.stackTop, top = push(context, base, root);
+    while (top > base) {
+      int node = context.stack[--top];
+      if (!slabTest(node, x, y, w, h, dx, dy, 1)) {
+        continue;
+      }
+      if (isLeaf(node)) {
+        result.add(handles[node]);
+      } else {
+        top = push(context, top, child1s[node]);
+        top = push(context, top, child2s[node]);
+      }
+    }
+  }
+
+  /**
+   * The tree has no cells to share between queries, so this runs each query on its own.
+   */
+  @Override
+  public void queryRects(float[] rects, int count, IntArray queries, IntArray handles, QueryContext context) {
+    UniqueIntArray candidates = context.seen;
+    for (int q = 0, i = 0; q < count; q++, i += 4) {
+      candidates.clear();
+      queryRect(rects[i], rects[i + 1], rects[i + 2], rects[i + 3], candidates, context);
+      addPairs(q, candidates, queries, handles);
+    }
+  }
+
+  @Override
+  public void queryPoints(float[] points, int count, IntArray queries, IntArray handles, QueryContext context) {
+    UniqueIntArray candidates = context.seen;
+    for (int q = 0, i = 0; q < count; q++, i += 2) {
+      candidates.clear();
+      queryRect(points[i], points[i + 1], 0, 0, candidates, context);
+      addPairs(q, candidates, queries, handles);
+    }
+  }
+
+  private static void addPairs(int query, UniqueIntArray candidates, IntArray queries, IntArray handles) {
+    for (int i = 0; i < candidates.size; i++) {
+      queries.add(query);
+      handles.add(candidates.items[i]);
+    }
+  }
+
+  @Override
+  public float raycast(float originX, float originY, float dirX, float dirY, float maxT, RaycastCallback callback, QueryContext context) {
+    if (root == NULL) {
+      return maxT;
+    }
+    int base = context.stackTop, top = push(context, base, root);
+    while (top > base) {
+      int node = context.stack[--top];
+      if (!slabTest(node, originX, originY, 0, 0, dirX, dirY, maxT)) {
+        continue;
+      }
+      if (isLeaf(node)) {
+        // a query started from the callback pushes its nodes above those still pending here
+        context.stackTop = top;
+        try {
+          maxT = callback.reportCandidate(handles[node], maxT);
+        } finally {
+          context.stackTop = base;
+        }
+      } else {
+        top = push(context, top, child1s[node]);
+        top = push(context, top, child2s[node]);
+      }
+    }
+    return maxT;
+  }
+
+  /**
+   * Adds the items in every leaf that the line from x,y to x + dx * maxT, y + dy * maxT touches, using the slab test.
+   * Touching a boundary counts, so the World's exact test always sees every item that could intersect.
+   */
+  private void raycast(float x, float y, float dx, float dy, float maxT, UniqueIntArray result, QueryContext context) {
+    if (root == NULL) {
+      return;
+    }
+    int base = context.stackTop, top = push(context, base, root);
+    while (top > base) {
+      int node = context.stack[--top];
+      if (!slabTest(node, x, y, 0, 0, dx, dy, maxT)) {
+        continue;
+      }
+      if (isLeaf(node)) {
+        result.add(handles[node]);
+      } else {
+        top = push(context, top, child1s[node]);
+        top = push(context, top, child2s[node]);
+      }
+    }
+  }
+
+  /**
+   * Tests the line from x,y to x + dx * maxT, y + dy * maxT against the node's box, grown left by w and up by h. A
+   * rectangle of size w,h whose corner moves along the line touches the box exactly when the line touches the grown
+   * box, so this also tests a swept rectangle.
+   */
+  private boolean slabTest(int node, float x, float y, float w, float h, float dx, float dy, float maxT) {
+    float tMin = 0, tMax = maxT;
+    float minX = minXs[node] - w, minY = minYs[node] - h;
+    if (dx == 0) {
+      if (x < minX || x > maxXs[node]) {
+        return false;
+      }
+    } else {
+      float t1 = (minX - x) / dx, t2 = (maxXs[node] - x) / dx;
+      tMin = max(tMin, min(t1, t2));
+      tMax = min(tMax, max(t1, t2));
+      if (tMin > tMax) {
+        return false;
+      }
+    }
+    if (dy == 0) {
+      return y >= minY && y <= maxYs[node];
+    }
+    float t1 = (minY - y) / dy, t2 = (maxYs[node] - y) / dy;
+    tMin = max(tMin, min(t1, t2));
+    tMax = min(tMax, max(t1, t2));
+    return tMin <= tMax;
+  }
+}
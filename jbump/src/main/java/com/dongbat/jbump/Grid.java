@@ -34,6 +34,14 @@ public class Grid {
     point.set((float) floor(x / cellSize) + 1, (float) floor(y / cellSize) + 1);
   }
 
+  /**
+   * Packs integer cell coordinates into one long, with cy in the upper 32 bits and cx in the lower 32 bits. This is the
+   * key type used by {@link World} to look up cells without allocating a {@link Point} per lookup.
+   */
+  public static long grid_toCellKey(float cx, float cy) {
+    return (long) (int) cy << 32 | ((int) cx & 0xFFFFFFFFL);
+  }
+
   public static int grid_traverse_initStep(float cellSize, float ct, float t1, float t2, Point point) {
     float v = t2 - t1;
     if (v > 0) {
@@ -133,6 +141,35 @@ public class Grid {
     }
   }
 
+  /**
+   * Finds the columns of the cells in row cy that are touched by the area a rectangle sweeps while moving from x,y to
+   * goalX,goalY. That area is a hexagon for a diagonal move, so near the corners of the move's bounding rect it touches
+   * far fewer cells than the bounding rect does. The columns follow the same rule as {@link #grid_toCellRect}.
+   * @param span set to the first column in x and the last column in y; x is greater than y if no cell is touched
+   * @return false if the swept area doesn't reach row cy at all
+   */
+  public static boolean grid_toSweptCellSpan(float cellSize, float x, float y, float w, float h, float goalX, float goalY, float cy, Point span) {
+    float top = (cy - 1) * cellSize, bottom = cy * cellSize;
+    float dx = goalX - x, dy = goalY - y;
+    // the rectangle, moved by t * (dx, dy), overlaps the row while y + t * dy <= bottom and y + h + t * dy >= top
+    float t0 = 0, t1 = 1;
+    if (dy > 0) {
+      t0 = max(t0, (top - y - h) / dy);
+      t1 = min(t1, (bottom - y) / dy);
+    } else if (dy < 0) {
+      t0 = max(t0, (bottom - y) / dy);
+      t1 = min(t1, (top - y - h) / dy);
+    } else if (y > bottom || y + h < top) {
+      return false;
+    }
+    if (t0 > t1) {
+      return false;
+    }
+    float left = x + min(t0 * dx, t1 * dx), right = x + w + max(t0 * dx, t1 * dx);
+    span.set((float) floor(left / cellSize) + 1, (float) ceil(right / cellSize));
+    return true;
+  }
+
   private final Point grid_toCellRect_cxy = new Point();
 
   public Rect grid_toCellRect(float cellSize, float x, float y, float w, float h, Rect rect) {
@@ -0,0 +1,810 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import com.dongbat.jbump.util.IntArray;
+import com.dongbat.jbump.util.IntIntMap;
+import com.dongbat.jbump.util.IntSet;
+import com.dongbat.jbump.util.LongMap;
+import com.dongbat.jbump.util.SmallIntSet;
+import com.dongbat.jbump.util.UniqueIntArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.dongbat.jbump.Grid.*;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * The uniform grid from bump.lua, and the default {@link SpatialIndex} of a {@link World}. Each item is stored in every
+ * {@link Cell} its rectangle touches. Cells are kept in a sparse map keyed by their packed coordinates, or, for a grid
+ * made with bounds, in a flat array for the cells inside those bounds.
+ */
+public class GridIndex implements SpatialIndex {
+
+  private final LongMap<Cell> cellMap = new LongMap<Cell>();
+  /**
+   * The bounds of the cells that currently hold items, inclusive. Empty cells are evicted, and these shrink along with
+   * them, so ray traversals never walk out to cells that used to be occupied. When there are no cells, the minimums are
+   * greater than the maximums.
+   */
+  private float cellMinX = Float.MAX_VALUE, cellMinY = Float.MAX_VALUE, cellMaxX = -Float.MAX_VALUE, cellMaxY = -Float.MAX_VALUE;
+  /**
+   * How many live cells are in each cell column and row; used to shrink the cell bounds without scanning every cell.
+   */
+  private final IntIntMap columnCounts = new IntIntMap(), rowCounts = new IntIntMap();
+  /**
+   * Cells that were evicted once they became empty, ready to be reused by {@link #addItemToCell(int, float, float)}.
+   */
+  private final ArrayList<Cell> cellPool = new ArrayList<Cell>();
+  /**
+   * The IntSets that cells switch to when they get crowded, shared by every cell, so that the cells that fill up as
+   * items move around don't each need an IntSet of their own.
+   */
+  private final ArrayList<IntSet> setPool = new ArrayList<IntSet>();
+  private final Grid grid = new Grid();
+  private final float cellSize;
+  /**
+   * Only used by the bounded mode; null otherwise. Cells with coordinates inside the bounds are stored here, row by
+   * row, and any cell outside the bounds falls back to {@link #cellMap}.
+   */
+  private final Cell[] denseCells;
+  private final int denseMinCx, denseMinCy, denseWidth, denseHeight;
+  private int denseCount;
+
+  public GridIndex(float cellSize) {
+    this.cellSize = cellSize;
+    denseCells = null;
+    denseMinCx = denseMinCy = denseWidth = denseHeight = 0;
+  }
+
+  /**
+   * Creates a grid in bounded mode, for levels with known, fixed bounds. Every cell that overlaps the rectangle from
+   * {@code minX,minY} to {@code maxX,maxY} is stored in a flat array, so looking it up is a plain array read instead of
+   * a hash lookup. Items may still be placed outside the bounds; the cells they touch out there are kept in the same
+   * sparse map an unbounded grid uses, so behavior is identical either way.
+   * <br>
+   * The array holds one reference per cell in the bounds, allocated up front, so pick bounds and a cellSize that keep
+   * the cell count reasonable.
+   * @param cellSize the width and height of each cell in the grid
+   * @param minX the smallest x coordinate of the bounded area
+   * @param minY the smallest y coordinate of the bounded area
+   * @param maxX the largest x coordinate of the bounded area
+   * @param maxY the largest y coordinate of the bounded area
+   */
+  public GridIndex(float cellSize, float minX, float minY, float maxX, float maxY) {
+    if (maxX < minX || maxY < minY) {
+      throw new IllegalArgumentException("World bounds must not be negative in size: " + minX + ", " + minY + " to " + maxX + ", " + maxY);
+    }
+    this.cellSize = cellSize;
+    Point c = new Point();
+    grid_toCell(cellSize, minX, minY, c);
+    denseMinCx = (int) c.x;
+    denseMinCy = (int) c.y;
+    grid_toCell(cellSize, maxX, maxY, c);
+    denseWidth = (int) c.x - denseMinCx + 1;
+    denseHeight = (int) c.y - denseMinCy + 1;
+    long area = (long) denseWidth * denseHeight;
+    if (area > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("World bounds cover too many cells for bounded mode: " + area);
+    }
+    denseCells = new Cell[(int) area];
+  }
+
+  public float getCellSize() {
+    return cellSize;
+  }
+
+  /**
+   * Returns true if this grid was created with bounds, storing the cells inside those bounds in a flat array.
+   */
+  public boolean isBounded() {
+    return denseCells != null;
+  }
+
+  /**
+   * Returns the index of the cell cx,cy in {@link #denseCells}, or -1 if this grid isn't bounded or the cell is outside
+   * of its bounds.
+   */
+  private int denseIndex(float cx, float cy) {
+    if (denseCells == null) {
+      return -1;
+    }
+    int dx = (int) cx - denseMinCx, dy = (int) cy - denseMinCy;
+    if (dx < 0 || dy < 0 || dx >= denseWidth || dy >= denseHeight) {
+      return -1;
+    }
+    return dy * denseWidth + dx;
+  }
+
+  private Cell getCell(float cx, float cy) {
+    int index = denseIndex(cx, cy);
+    if (index >= 0) {
+      return denseCells[index];
+    }
+    return cellMap.get(grid_toCellKey(cx, cy));
+  }
+
+  private void addItemToCell(int handle, float cx, float cy) {
+    int index = denseIndex(cx, cy);
+    Cell cell = index >= 0 ? denseCells[index] : cellMap.get(grid_toCellKey(cx, cy));
+    if(cell == null) {
+      cell = cellPool.isEmpty() ? new Cell(new SmallIntSet(setPool)) : cellPool.remove(cellPool.size() - 1);
+      cell.x = cx;
+      cell.y = cy;
+      if (index >= 0) {
+        denseCells[index] = cell;
+        denseCount++;
+      } else {
+        cellMap.put(grid_toCellKey(cx, cy), cell);
+      }
+      columnCounts.getAndIncrement((int) cx, 0, 1);
+      rowCounts.getAndIncrement((int) cy, 0, 1);
+      if (cx < cellMinX) cellMinX = cx;
+      if (cy < cellMinY) cellMinY = cy;
+      if (cx > cellMaxX) cellMaxX = cx;
+      if (cy > cellMaxY) cellMaxY = cy;
+    }
+    cell.items.add(handle);
+  }
+
+  private boolean removeItemFromCell(int handle, float cx, float cy) {
+    int index = denseIndex(cx, cy);
+    Cell cell = index >= 0 ? denseCells[index] : cellMap.get(grid_toCellKey(cx, cy));
+    if(cell == null) {
+      return false;
+    }
+    if (!cell.items.remove(handle)) {
+      return false;
+    }
+    if (cell.items.isEmpty()) {
+      if (index >= 0) {
+        denseCells[index] = null;
+        denseCount--;
+      } else {
+        cellMap.remove(grid_toCellKey(cx, cy));
+      }
+      cellPool.add(cell);
+      evictFromBounds((int) cx, (int) cy);
+    }
+    return true;
+  }
+
+  /**
+   * Called when the cell at cx,cy has been evicted; shrinks the cell bounds if that was the last cell in an outermost
+   * column or row. Each shrinking step is paid for by the growth that created the bound in the first place, so this
+   * is cheap overall even though a single call may walk across empty columns or rows.
+   */
+  private void evictFromBounds(int cx, int cy) {
+    if (columnCounts.getAndIncrement(cx, 0, -1) == 1) {
+      columnCounts.remove(cx, 0);
+    }
+    if (rowCounts.getAndIncrement(cy, 0, -1) == 1) {
+      rowCounts.remove(cy, 0);
+    }
+    if (columnCounts.size == 0) {
+      cellMinX = cellMinY = Float.MAX_VALUE;
+      cellMaxX = cellMaxY = -Float.MAX_VALUE;
+      return;
+    }
+    while (!columnCounts.containsKey((int) cellMinX)) cellMinX++;
+    while (!columnCounts.containsKey((int) cellMaxX)) cellMaxX--;
+    while (!rowCounts.containsKey((int) cellMinY)) cellMinY++;
+    while (!rowCounts.containsKey((int) cellMaxY)) cellMaxY--;
+  }
+
+  private final Rect add_c = new Rect();
+
+  @Override
+  public void add(int handle, float x, float y, float w, float h) {
+    grid.grid_toCellRect(cellSize, x, y, w, h, add_c);
+    float cl = add_c.x, ct = add_c.y, cw = add_c.w, ch = add_c.h;
+    for (float cy = ct; cy < ct + ch; cy++) {
+      for (float cx = cl; cx < cl + cw; cx++) {
+        addItemToCell(handle, cx, cy);
+      }
+    }
+  }
+
+  private final Rect remove_c = new Rect();
+
+  @Override
+  public void remove(int handle, float x, float y, float w, float h) {
+    grid.grid_toCellRect(cellSize, x, y, w, h, remove_c);
+    float cl = remove_c.x, ct = remove_c.y, cw = remove_c.w, ch = remove_c.h;
+
+    for (float cy = ct; cy < ct + ch; cy++) {
+      for (float cx = cl; cx < cl + cw; cx++) {
+        removeItemFromCell(handle, cx, cy);
+      }
+    }
+  }
+
+  private final Rect update_c1 = new Rect();
+  private final Rect update_c2 = new Rect();
+
+  @Override
+  public void update(int handle, float x1, float y1, float w1, float h1, float x2, float y2, float w2, float h2) {
+    Rect c1 = grid.grid_toCellRect(cellSize, x1, y1, w1, h1, update_c1);
+    Rect c2 = grid.grid_toCellRect(cellSize, x2, y2, w2, h2, update_c2);
+
+    float cl1 = c1.x, ct1 = c1.y, cw1 = c1.w, ch1 = c1.h;
+    float cl2 = c2.x, ct2 = c2.y, cw2 = c2.w, ch2 = c2.h;
+
+    if (cl1 != cl2 || ct1 != ct2 || cw1 != cw2 || ch1 != ch2) {
+      float cr1 = cl1 + cw1 - 1, cb1 = ct1 + ch1 - 1;
+      float cr2 = cl2 + cw2 - 1, cb2 = ct2 + ch2 - 1;
+      boolean cyOut;
+
+      for (float cy = ct1; cy <= cb1; cy++) {
+        cyOut = cy < ct2 || cy > cb2;
+        for (float cx = cl1; cx <= cr1; cx++) {
+          if (cyOut || cx < cl2 || cx > cr2) {
+            removeItemFromCell(handle, cx, cy);
+          }
+        }
+      }
+
+      for (float cy = ct2; cy <= cb2; cy++) {
+        cyOut = cy < ct1 || cy > cb1;
+        for (float cx = cl2; cx <= cr2; cx++) {
+          if (cyOut || cx < cl1 || cx > cr1) {
+            addItemToCell(handle, cx, cy);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    cellMap.clear();
+    columnCounts.clear();
+    rowCounts.clear();
+    cellMinX = cellMinY = Float.MAX_VALUE;
+    cellMaxX = cellMaxY = -Float.MAX_VALUE;
+    if (denseCells != null) {
+      Arrays.fill(denseCells, null);
+      denseCount = 0;
+    }
+  }
+
+  /**
+   * Shrinks the sparse cell map and the item set of every cell to fit their current contents, and empties the pool of
+   * reusable cells. Cells that become empty are already evicted as soon as that happens, so this is only needed to give
+   * back table capacity.
+   */
+  @Override
+  public void compact() {
+    cellMap.shrink(cellMap.size());
+    columnCounts.shrink(columnCounts.size);
+    rowCounts.shrink(rowCounts.size);
+    cellPool.clear();
+    cellPool.trimToSize();
+    setPool.clear();
+    setPool.trimToSize();
+    if (denseCells != null) {
+      for (Cell cell : denseCells) {
+        if (cell != null) {
+          cell.items.shrink();
+        }
+      }
+    }
+    for (Cell cell : cellMap.values()) {
+      cell.items.shrink();
+    }
+  }
+
+  /**
+   * Adds the items of the cells from cl,ct to cl + cw - 1,ct + ch - 1 to result, row by row. If callback isn't null,
+   * each item result didn't hold yet is also reported to it, and the walk ends as soon as callback returns false.
+   * @return false if callback ended the walk
+   */
+  private boolean getDictItemsInCellRect(float cl, float ct, float cw, float ch, UniqueIntArray result, QueryCallback callback) {
+    // cells outside the occupied bounds are all empty, so a huge query rect only walks the part that overlaps them
+    float cr = min(cl + cw - 1, cellMaxX), cb = min(ct + ch - 1, cellMaxY);
+    cl = max(cl, cellMinX);
+    ct = max(ct, cellMinY);
+    if (cl > cr || ct > cb) {
+      return true;
+    }
+    cw = cr - cl + 1;
+    ch = cb - ct + 1;
+    if (denseIndex(cl, ct) >= 0 && denseIndex(cl + cw - 1, ct + ch - 1) >= 0) {
+      // the whole cell rect is inside the bounds, so walk the array rows directly
+      int rowStart = denseIndex(cl, ct), w = (int) cw;
+      for (int row = 0; row < ch; row++, rowStart += denseWidth) {
+        for (int i = rowStart, n = rowStart + w; i < n; i++) {
+          Cell cell = denseCells[i];
+          if (cell != null && !cell.items.isEmpty()) { // this is conscious of tunneling
+            if (!addCellItems(cell, result, callback)) {
+              return false;
+            }
+          }
+        }
+      }
+      return true;
+    }
+    for (float cy = ct; cy < ct + ch; cy++) {
+      for (float cx = cl; cx < cl + cw; cx++) {
+        Cell cell = getCell(cx, cy);
+        if (cell != null && !cell.items.isEmpty()) { // this is conscious of tunneling
+          if (!addCellItems(cell, result, callback)) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the items of cell to result, and reports the ones it didn't hold yet to callback if there is one.
+   * @return false if callback ended the walk
+   */
+  private static boolean addCellItems(Cell cell, UniqueIntArray result, QueryCallback callback) {
+    int start = result.size;
+    cell.items.addTo(result);
+    if (callback != null) {
+      for (int i = start, n = result.size; i < n; i++) {
+        if (!callback.reportCandidate(result.items[i])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void queryRect(float x, float y, float w, float h, UniqueIntArray result, QueryContext context) {
+    Rect c = context.grid.grid_toCellRect(cellSize, x, y, w, h, context.cellRect);
+    getDictItemsInCellRect(c.x, c.y, c.w, c.h, result, null);
+  }
+
+  @Override
+  public void queryPoint(float x, float y, UniqueIntArray result, QueryContext context) {
+    Point c = context.cellPoint;
+    grid_toCell(cellSize, x, y, c);
+    getDictItemsInCellRect(c.x, c.y, 1, 1, result, null);
+  }
+
+  @Override
+  public boolean queryRect(float x, float y, float w, float h, QueryCallback callback, QueryContext context) {
+    Rect c = context.grid.grid_toCellRect(cellSize, x, y, w, h, context.cellRect);
+    return visitCellRect(c.x, c.y, c.w, c.h, callback, context);
+  }
+
+  @Override
+  public boolean queryPoint(float x, float y, QueryCallback callback, QueryContext context) {
+    Point c = context.cellPoint;
+    grid_toCell(cellSize, x, y, c);
+    return visitCellRect(c.x, c.y, 1, 1, callback, context);
+  }
+
+  /**
+   * Reports the items of a rect of cells to callback. The callback may start another query on context, so the items
+   * already reported are kept in a candidate array of this level of nesting's own.
+   */
+  private boolean visitCellRect(float cl, float ct, float cw, float ch, QueryCallback callback, QueryContext context) {
+    UniqueIntArray seen = context.acquireCandidates();
+    try {
+      return getDictItemsInCellRect(cl, ct, cw, ch, seen, callback);
+    } finally {
+      context.releaseCandidates();
+    }
+  }
+
+  /**
+   * Adds the items of every cell a segment or ray passes through, in the order it passes through them. A cell that is
+   * passed through twice adds nothing new the second time, since result drops items it already holds.
+   */
+  static final class CellCollector implements TraverseCallback {
+    GridIndex index;
+    UniqueIntArray result;
+
+    @Override
+    public boolean onTraverse(float cx, float cy, int stepX, int stepY) {
+      GridIndex index = this.index;
+      //stop if cell coordinates are outside of the world.
+      if (stepX == -1 && cx < index.cellMinX || stepX == 1 && cx > index.cellMaxX
+              || stepY == -1 && cy < index.cellMinY || stepY == 1 && cy > index.cellMaxY) return false;
+      Cell cell = index.getCell(cx, cy);
+      if (cell != null) {
+        cell.items.addTo(result);
+      }
+      return true;
+    }
+  }
+
+  @Override
+  public void querySegment(float x1, float y1, float x2, float y2, UniqueIntArray result, QueryContext context) {
+    CellCollector collector = context.cellCollector;
+    collector.index = this;
+    collector.result = result;
+    context.grid.grid_traverse(cellSize, x1, y1, x2, y2, collector);
+    collector.index = null;
+    collector.result = null;
+  }
+
+  @Override
+  public void queryRay(float originX, float originY, float dirX, float dirY, UniqueIntArray result, QueryContext context) {
+    CellCollector collector = context.cellCollector;
+    collector.index = this;
+    collector.result = result;
+    context.grid.grid_traverseRay(cellSize, originX, originY, dirX, dirY, collector);
+    collector.index = null;
+    collector.result = null;
+  }
+
+  /**
+   * Adds the items in the square ring of cells that are exactly {@code ring} cells away from the cell cx,cy, counting
+   * diagonals as one step; ring 0 is the cell itself. Only the part of the ring that crosses occupied cells is walked.
+   * Calling this with rings 0, 1, 2 and so on expands a search outward from a point, one ring at a time.
+   * @return the next ring that could hold any items, which skips rings that lie wholly outside the occupied cells, or
+   *         -1 if the cells within {@code ring} steps of cx,cy already cover every occupied cell
+   */
+  public int queryRing(float cx, float cy, int ring, UniqueIntArray result) {
+    if (cellMinX > cellMaxX) {
+      return -1;
+    }
+    float left = cx - ring, right = cx + ring, top = cy - ring, bottom = cy + ring;
+    float x1 = max(left, cellMinX), x2 = min(right, cellMaxX);
+    float y1 = max(top, cellMinY), y2 = min(bottom, cellMaxY);
+    if (x1 <= x2 && y1 <= y2) {
+      if (top >= cellMinY) {
+        addCellRange(x1, x2, top, result);
+      }
+      if (ring > 0 && bottom <= cellMaxY) {
+        addCellRange(x1, x2, bottom, result);
+      }
+      // the sides, without the corners the rows above already covered
+      float sideY1 = max(top + 1, cellMinY), sideY2 = min(bottom - 1, cellMaxY);
+      for (float y = sideY1; y <= sideY2; y++) {
+        if (left >= cellMinX) {
+          addCell(left, y, result);
+        }
+        if (ring > 0 && right <= cellMaxX) {
+          addCell(right, y, result);
+        }
+      }
+    }
+    if (left <= cellMinX && right >= cellMaxX && top <= cellMinY && bottom >= cellMaxY) {
+      return -1;
+    }
+    // how many rings away the occupied cells start, if they haven't been reached yet
+    float gap = max(max(cellMinX - cx, cx - cellMaxX), max(cellMinY - cy, cy - cellMaxY));
+    return max(ring + 1, (int) gap);
+  }
+
+  private void addCellRange(float x1, float x2, float cy, UniqueIntArray result) {
+    for (float cx = x1; cx <= x2; cx++) {
+      addCell(cx, cy, result);
+    }
+  }
+
+  private void addCell(float cx, float cy, UniqueIntArray result) {
+    Cell cell = getCell(cx, cy);
+    if (cell != null) {
+      cell.items.addTo(result);
+    }
+  }
+
+  /**
+   * Sorts every cell the rectangles touch by position, so each occupied cell is looked up once however many of the
+   * rectangles share it, and neighbouring cells are visited one after another.
+   */
+  @Override
+  public void queryRects(float[] rects, int count, IntArray queries, IntArray handles, QueryContext context) {
+    queryBatch(rects, count, false, queries, handles, context);
+  }
+
+  @Override
+  public void queryPoints(float[] points, int count, IntArray queries, IntArray handles, QueryContext context) {
+    queryBatch(points, count, true, queries, handles, context);
+  }
+
+  private void queryBatch(float[] data, int count, boolean points, IntArray queries, IntArray handles, QueryContext context) {
+    if (count <= 0 || cellMinX > cellMaxX) {
+      return;
+    }
+    // each key packs the position of a cell within the occupied bounds, row by row, above the index of a query
+    long spanX = (long) (cellMaxX - cellMinX) + 1, positions = spanX * ((long) (cellMaxY - cellMinY) + 1);
+    int queryBits = 32 - Integer.numberOfLeadingZeros(count - 1);
+    boolean packed = 64 - Long.numberOfLeadingZeros(positions) + queryBits <= 63;
+    long[] keys = context.keys;
+    int n = 0;
+    Rect c = context.cellRect;
+    Point point = context.cellPoint;
+    Grid grid = context.grid;
+    UniqueIntArray cellItems = context.seen;
+    for (int q = 0, stride = points ? 2 : 4; q < count; q++) {
+      int i = q * stride;
+      if (points) {
+        grid_toCell(cellSize, data[i], data[i + 1], point);
+        c.set(point.x, point.y, 1, 1);
+      } else {
+        grid.grid_toCellRect(cellSize, data[i], data[i + 1], data[i + 2], data[i + 3], c);
+      }
+      float cr = min(c.x + c.w - 1, cellMaxX), cb = min(c.y + c.h - 1, cellMaxY);
+      for (float cy = max(c.y, cellMinY); cy <= cb; cy++) {
+        for (float cx = max(c.x, cellMinX); cx <= cr; cx++) {
+          if (!packed) {
+            // the occupied cells are spread too far apart to pack into a key, so just look each one up
+            addCellPairs(getCell(cx, cy), q, cellItems, queries, handles);
+            continue;
+          }
+          if (n == keys.length) {
+            context.keys = keys = Arrays.copyOf(keys, n << 1);
+          }
+          keys[n++] = ((long) (cy - cellMinY) * spanX + (long) (cx - cellMinX)) << queryBits | q;
+        }
+      }
+    }
+    if (!packed || n == 0) {
+      return;
+    }
+    if (context.order.length < n) {
+      context.order = new int[Math.max(n, context.order.length << 1)];
+    }
+    int[] order = context.order;
+    int queryMask = (int) ((1L << queryBits) - 1);
+    if (positions <= 4L * n) {
+      // few enough cells to sort the keys with a counting sort over every position
+      int size = (int) positions;
+      if (context.counts.length < size + 1) {
+        context.counts = new int[Math.max(size + 1, context.counts.length << 1)];
+      }
+      int[] counts = context.counts;
+      Arrays.fill(counts, 0, size + 1, 0);
+      for (int k = 0; k < n; k++) {
+        counts[(int) (keys[k] >>> queryBits) + 1]++;
+      }
+      for (int p = 0; p < size; p++) {
+        counts[p + 1] += counts[p];
+      }
+      for (int k = 0; k < n; k++) {
+        order[counts[(int) (keys[k] >>> queryBits)]++] = (int) keys[k] & queryMask;
+      }
+      // each count has moved up to where the next position starts
+      for (int p = 0, start = 0; p < size; p++) {
+        int end = counts[p];
+        if (end > start) {
+          addCellPairs(getCell(cellMinX + p % spanX, cellMinY + p / spanX), order, start, end, cellItems, queries, handles);
+        }
+        start = end;
+      }
+      return;
+    }
+    Arrays.sort(keys, 0, n);
+    for (int k = 0; k < n; k++) {
+      order[k] = (int) keys[k] & queryMask;
+    }
+    for (int i = 0; i < n; ) {
+      long position = keys[i] >>> queryBits;
+      int j = i + 1;
+      while (j < n && keys[j] >>> queryBits == position) {
+        j++;
+      }
+      addCellPairs(getCell(cellMinX + position % spanX, cellMinY + position / spanX), order, i, j, cellItems, queries, handles);
+      i = j;
+    }
+  }
+
+  /**
+   * Adds a pair for every item in cell with each of the queries from start to end.
+   */
+  private static void addCellPairs(Cell cell, int[] order, int start, int end, UniqueIntArray items, IntArray queries, IntArray handles) {
+    if (cell == null) {
+      return;
+    }
+    items.clear();
+    cell.items.addTo(items);
+    int size = items.size, added = size * (end - start);
+    int[] cellItems = items.items;
+    int n = queries.size;
+    if (n + added > queries.items.length) {
+      // ensureCapacity only grows to fit, so ask for enough to double
+      queries.ensureCapacity(max(added, n));
+    }
+    if (n + added > handles.items.length) {
+      handles.ensureCapacity(max(added, n));
+    }
+    int[] queryItems = queries.items, handleItems = handles.items;
+    for (int k = start; k < end; k++) {
+      int query = order[k];
+      for (int i = 0; i < size; i++, n++) {
+        queryItems[n] = query;
+        handleItems[n] = cellItems[i];
+      }
+    }
+    queries.size = handles.size = n;
+  }
+
+  private static void addCellPairs(Cell cell, int query, UniqueIntArray items, IntArray queries, IntArray handles) {
+    if (cell == null) {
+      return;
+    }
+    items.clear();
+    cell.items.addTo(items);
+    for (int i = 0; i < items.size; i++) {
+      queries.add(query);
+      handles.add(items.items[i]);
+    }
+  }
+
+  /**
+   * Walks only the cells in each row that the swept hexagon reaches, found by
+   * {@link Grid#grid_toSweptCellSpan(float, float, float, float, float, float, float, float, Point)}, and never more
+   * than the cells of the move's bounding rect.
+   */
+  @Override
+  public void querySweptRect(float x, float y, float w, float h, float goalX, float goalY, UniqueIntArray result, QueryContext context) {
+    float tl = min(goalX, x);
+    float tt = min(goalY, y);
+    float tr = max(goalX + w, x + w);
+    float tb = max(goalY + h, y + h);
+    Rect c = context.grid.grid_toCellRect(cellSize, tl, tt, tr - tl, tb - tt, context.cellRect);
+    if (x == goalX || y == goalY) {
+      // a straight move sweeps its whole bounding rect
+      getDictItemsInCellRect(c.x, c.y, c.w, c.h, result, null);
+      return;
+    }
+    float cl = c.x, cr = c.x + c.w - 1;
+    Point span = context.span;
+    for (float cy = max(c.y, cellMinY), cb = min(c.y + c.h - 1, cellMaxY); cy <= cb; cy++) {
+      if (grid_toSweptCellSpan(cellSize, x, y, w, h, goalX, goalY, cy, span)) {
+        float first = max(span.x, cl), last = min(span.y, cr);
+        if (first <= last) {
+          getDictItemsInCellRect(first, cy, last - first + 1, 1, result, null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Walks the cells along a ray for
+   * {@link #raycast(float, float, float, float, float, RaycastCallback, QueryContext)}, stopping at the first cell that
+   * the ray only enters past the callback's limit.
+   */
+  static final class RaycastTraversal implements TraverseCallback {
+    GridIndex index;
+    final UniqueIntArray seen = new UniqueIntArray();
+    float originX, originY, dirX, dirY, maxT;
+    RaycastCallback callback;
+
+    @Override
+    public boolean onTraverse(float cx, float cy, int stepX, int stepY) {
+      GridIndex index = this.index;
+      float cellSize = index.cellSize;
+      //stop if cell coordinates are outside of the world.
+      if (stepX == -1 && cx < index.cellMinX || stepX == 1 && cx > index.cellMaxX
+              || stepY == -1 && cy < index.cellMinY || stepY == 1 && cy > index.cellMaxY) return false;
+      // the ray enters this cell where it last crossed one of its left or right and top or bottom sides
+      float entry = 0;
+      if (stepX != 0) {
+        entry = max(entry, ((stepX > 0 ? cx - 1 : cx) * cellSize - originX) / dirX);
+      }
+      if (stepY != 0) {
+        entry = max(entry, ((stepY > 0 ? cy - 1 : cy) * cellSize - originY) / dirY);
+      }
+      if (entry > maxT) {
+        return false;
+      }
+      Cell cell = index.getCell(cx, cy);
+      if (cell != null) {
+        UniqueIntArray seen = this.seen;
+        int start = seen.size;
+        cell.items.addTo(seen);
+        for (int i = start; i < seen.size; i++) {
+          maxT = callback.reportCandidate(seen.items[i], maxT);
+        }
+      }
+      return true;
+    }
+  }
+
+  @Override
+  public float raycast(float originX, float originY, float dirX, float dirY, float maxT, RaycastCallback callback, QueryContext context) {
+    // the callback may run another raycast on this context, so each level of nesting walks with its own traversal
+    RaycastTraversal traversal = context.traversals.acquire();
+    try {
+      traversal.index = this;
+      traversal.originX = originX;
+      traversal.originY = originY;
+      traversal.dirX = dirX;
+      traversal.dirY = dirY;
+      traversal.maxT = maxT;
+      traversal.callback = callback;
+      traversal.seen.clear();
+      context.grid.grid_traverseRay(cellSize, originX, originY, dirX, dirY, traversal);
+      return traversal.maxT;
+    } finally {
+      traversal.index = null;
+      traversal.callback = null;
+      context.traversals.release();
+    }
+  }
+
+  /**
+   * Returns the cells that currently hold items. For a grid made with bounds, this is a new list holding the cells in
+   * the bounds followed by any outside of them; otherwise it is a reused view of the sparse cell map.
+   * <br>
+   * A Cell is evicted from its grid as soon as it becomes empty, and may later be reused for other coordinates, so
+   * don't hold on to Cell references across changes to the grid.
+   */
+  public Collection<Cell> getCells() {
+    if (denseCells == null) {
+      return cellMap.values();
+    }
+    ArrayList<Cell> cells = new ArrayList<Cell>(countCells());
+    for (Cell cell : denseCells) {
+      if (cell != null) {
+        cells.add(cell);
+      }
+    }
+    cells.addAll(cellMap.values());
+    return cells;
+  }
+
+  public int countCells() {
+    return cellMap.size() + denseCount;
+  }
+
+  /**
+   * Collects each cell a traversal passes through into result, once, for the getCellsTouchedBy* methods.
+   */
+  private static final class CellListCollector implements TraverseCallback {
+    GridIndex index;
+    ArrayList<Cell> result;
+
+    @Override
+    public boolean onTraverse(float cx, float cy, int stepX, int stepY) {
+      GridIndex index = this.index;
+      //stop if cell coordinates are outside of the world.
+      if (stepX == -1 && cx < index.cellMinX || stepX == 1 && cx > index.cellMaxX
+              || stepY == -1 && cy < index.cellMinY || stepY == 1 && cy > index.cellMaxY) return false;
+      Cell cell = index.getCell(cx, cy);
+      if (cell != null && !result.contains(cell)) {
+        result.add(cell);
+      }
+      return true;
+    }
+  }
+
+  private final CellListCollector getCellsTouched_collector = new CellListCollector();
+
+  public ArrayList<Cell> getCellsTouchedBySegment(float x1, float y1, float x2, float y2, ArrayList<Cell> result) {
+    result.clear();
+    CellListCollector collector = getCellsTouched_collector;
+    collector.index = this;
+    collector.result = result;
+    grid.grid_traverse(cellSize, x1, y1, x2, y2, collector);
+    collector.result = null;
+    return result;
+  }
+
+  public ArrayList<Cell> getCellsTouchedByRay(float originX, float originY, float dirX, float dirY, ArrayList<Cell> result) {
+    result.clear();
+    CellListCollector collector = getCellsTouched_collector;
+    collector.index = this;
+    collector.result = result;
+    grid.grid_traverseRay(cellSize, originX, originY, dirX, dirY, collector);
+    collector.result = null;
+    return result;
+  }
+}
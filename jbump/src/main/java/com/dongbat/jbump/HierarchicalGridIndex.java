@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import com.dongbat.jbump.util.IntArray;
+import com.dongbat.jbump.util.UniqueIntArray;
+
+/**
+ * A stack of {@link GridIndex} levels, each with cells twice as big as the level below it, usable as the
+ * {@link SpatialIndex} of a {@link World}. Each item is stored only in the finest level whose cells are at least as big
+ * as the item, so it touches at most 2x2 cells there, however big it is. A 2000x2000 platform in a world with 64 unit
+ * cells goes into a few 2048 unit cells instead of about a thousand 64 unit ones, and moving it stays cheap.
+ * <br>
+ * Queries visit every level that holds any items. Which level an item belongs to only depends on its size, so nothing
+ * has to remember it; the rectangles passed to remove and update are enough to find it again.
+ */
+public class HierarchicalGridIndex implements SpatialIndex {
+
+  private final GridIndex[] levels;
+  private final int[] levelCounts;
+  private final float cellSize;
+
+  /**
+   * Creates a hierarchical grid with 8 levels, so the coarsest cells are 128 times the size of the finest ones.
+   * @param cellSize the width and height of each cell in the finest level
+   */
+  public HierarchicalGridIndex(float cellSize) {
+    this(cellSize, 8);
+  }
+
+  /**
+   * @param cellSize the width and height of each cell in the finest level
+   * @param levelCount how many levels to use; the cells of the coarsest level are {@code cellSize * 2^(levelCount-1)}
+   *                   wide, and items bigger than that go into it anyway
+   */
+  public HierarchicalGridIndex(float cellSize, int levelCount) {
+    if (levelCount < 1 || levelCount > 31) {
+      throw new IllegalArgumentException("levelCount must be between 1 and 31: " + levelCount);
+    }
+    this.cellSize = cellSize;
+    levels = new GridIndex[levelCount];
+    levelCounts = new int[levelCount];
+    for (int i = 0; i < levelCount; i++) {
+      levels[i] = new GridIndex(cellSize * (1 << i));
+    }
+  }
+
+  /**
+   * Returns the cell size of the finest level.
+   */
+  public float getCellSize() {
+    return cellSize;
+  }
+
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /**
+   * Returns the grid used for the given level, where level 0 is the finest. Don't add or remove items through it.
+   */
+  public GridIndex getLevel(int level) {
+    return levels[level];
+  }
+
+  /**
+   * Returns the level an item of the given size is stored in.
+   */
+  public int levelFor(float w, float h) {
+    float size = Math.max(w, h);
+    int last = levels.length - 1;
+    for (int i = 0; i < last; i++) {
+      if (size <= levels[i].getCellSize()) {
+        return i;
+      }
+    }
+    return last;
+  }
+
+  @Override
+  public void add(int handle, float x, float y, float w, float h) {
+    int level = levelFor(w, h);
+    levels[level].add(handle, x, y, w, h);
+    levelCounts[level]++;
+  }
+
+  @Override
+  public void remove(int handle, float x, float y, float w, float h) {
+    int level = levelFor(w, h);
+    levels[level].remove(handle, x, y, w, h);
+    levelCounts[level]--;
+  }
+
+  @Override
+  public void update(int handle, float x1, float y1, float w1, float h1, float x2, float y2, float w2, float h2) {
+    int level1 = levelFor(w1, h1), level2 = levelFor(w2, h2);
+    if (level1 == level2) {
+      levels[level1].update(handle, x1, y1, w1, h1, x2, y2, w2, h2);
+    } else {
+      levels[level1].remove(handle, x1, y1, w1, h1);
+      levelCounts[level1]--;
+      levels[level2].add(handle, x2, y2, w2, h2);
+      levelCounts[level2]++;
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < levels.length; i++) {
+      levels[i].clear();
+      levelCounts[i] = 0;
+    }
+  }
+
+  @Override
+  public void compact() {
+    for (GridIndex level : levels) {
+      level.compact();
+    }
+  }
+
+  @Override
+  public void queryRect(float x, float y, float w, float h, UniqueIntArray result, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0) {
+        levels[i].queryRect(x, y, w, h, result, context);
+      }
+    }
+  }
+
+  @Override
+  public void queryPoint(float x, float y, UniqueIntArray result, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0) {
+        levels[i].queryPoint(x, y, result, context);
+      }
+    }
+  }
+
+  @Override
+  public boolean queryRect(float x, float y, float w, float h, QueryCallback callback, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0 && !levels[i].queryRect(x, y, w, h, callback, context)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean queryPoint(float x, float y, QueryCallback callback, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0 && !levels[i].queryPoint(x, y, callback, context)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void querySegment(float x1, float y1, float x2, float y2, UniqueIntArray result, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0) {
+        levels[i].querySegment(x1, y1, x2, y2, result, context);
+      }
+    }
+  }
+
+  @Override
+  public void queryRay(float originX, float originY, float dirX, float dirY, UniqueIntArray result, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0) {
+        levels[i].queryRay(originX, originY, dirX, dirY, result, context);
+      }
+    }
+  }
+
+  @Override
+  public void querySweptRect(float x, float y, float w, float h, float goalX, float goalY, UniqueIntArray result, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0) {
+        levels[i].querySweptRect(x, y, w, h, goalX, goalY, result, context);
+      }
+    }
+  }
+
+  @Override
+  public void queryRects(float[] rects, int count, IntArray queries, IntArray handles, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0) {
+        levels[i].queryRects(rects, count, queries, handles, context);
+      }
+    }
+  }
+
+  @Override
+  public void queryPoints(float[] points, int count, IntArray queries, IntArray handles, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0) {
+        levels[i].queryPoints(points, count, queries, handles, context);
+      }
+    }
+  }
+
+  @Override
+  public float raycast(float originX, float originY, float dirX, float dirY, float maxT, RaycastCallback callback, QueryContext context) {
+    for (int i = 0; i < levels.length; i++) {
+      if (levelCounts[i] > 0) {
+        maxT = levels[i].raycast(originX, originY, dirX, dirY, maxT, callback, context);
+      }
+    }
+    return maxT;
+  }
+}
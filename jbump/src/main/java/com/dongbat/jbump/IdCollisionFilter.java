@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+/**
+ * The {@link CollisionFilter} of the id-based methods in {@link World}, such as
+ * {@link World#move(int, float, float, IdCollisionFilter)}. It is given the ids the items were added with, instead of
+ * Items.
+ */
+public interface IdCollisionFilter {
+
+  /**
+   * Passed as other when there is no other item, as in queries, or when the other item was added as an {@link Item}
+   * rather than by id.
+   */
+  int NO_ID = -1;
+
+  Response filter(int id, int other);
+
+  IdCollisionFilter defaultFilter = new IdCollisionFilter() {
+    @Override
+    public Response filter(int id, int other) {
+      return Response.slide;
+    }
+  };
+}
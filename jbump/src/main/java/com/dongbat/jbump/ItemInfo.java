@@ -45,6 +45,17 @@ public class ItemInfo {
         this.weight = weight;
     }
     
+    /**
+     * Reuses this info for another item, resetting the coordinates.
+     */
+    public void set(Item item, float ti1, float ti2, float weight) {
+        this.item = item;
+        this.ti1 = ti1;
+        this.ti2 = ti2;
+        this.weight = weight;
+        x1 = y1 = x2 = y2 = 0;
+    }
+    
     public static final Comparator<ItemInfo> weightComparator = new Comparator<ItemInfo>() {
         @Override
         public int compare(ItemInfo o1, ItemInfo o2) {
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import com.dongbat.jbump.util.IntArray;
+import com.dongbat.jbump.util.ObjectIntMap;
+
+import java.util.Arrays;
+
+/**
+ * The items of a {@link World} and their rectangles, stored as parallel arrays indexed by an int handle. A handle is
+ * assigned when an item is added and stays the same until it is removed; after that, the handle is reused by a later
+ * item. Handles are dense, so they make good indexes into other arrays, and the {@link SpatialIndex} stores them
+ * instead of Item references.
+ * <br>
+ * The arrays are read directly by World; a slot whose {@link #items} entry is null is free.
+ */
+class ItemTable {
+  float[] xs, ys, ws, hs;
+  /**
+   * The collision category and mask of each item; see {@link World#setCategory(Item, int, int)}.
+   */
+  int[] categories, masks;
+  Item[] items;
+  /**
+   * One past the highest handle ever used; every handle is less than this.
+   */
+  int limit;
+  private int count;
+  private final IntArray freeHandles = new IntArray();
+  private final ObjectIntMap<Item> handles = new ObjectIntMap<Item>();
+
+  ItemTable() {
+    allocate(32);
+  }
+
+  private void allocate(int capacity) {
+    if (items == null) {
+      xs = new float[capacity];
+      ys = new float[capacity];
+      ws = new float[capacity];
+      hs = new float[capacity];
+      categories = new int[capacity];
+      masks = new int[capacity];
+      items = new Item[capacity];
+    } else {
+      xs = Arrays.copyOf(xs, capacity);
+      ys = Arrays.copyOf(ys, capacity);
+      ws = Arrays.copyOf(ws, capacity);
+      hs = Arrays.copyOf(hs, capacity);
+      categories = Arrays.copyOf(categories, capacity);
+      masks = Arrays.copyOf(masks, capacity);
+      items = Arrays.copyOf(items, capacity);
+    }
+  }
+
+  /**
+   * Returns the handle of item, or -1 if it isn't in this table.
+   */
+  int handleOf(Item item) {
+    return handles.get(item, -1);
+  }
+
+  /**
+   * Adds an item that is not already in this table and returns its new handle.
+   */
+  int add(Item item, float x, float y, float w, float h, int category, int mask) {
+    int handle;
+    if (freeHandles.size > 0) {
+      handle = freeHandles.pop();
+    } else {
+      handle = limit++;
+      if (handle == items.length) {
+        allocate(handle << 1);
+      }
+    }
+    items[handle] = item;
+    xs[handle] = x;
+    ys[handle] = y;
+    ws[handle] = w;
+    hs[handle] = h;
+    categories[handle] = category;
+    masks[handle] = mask;
+    handles.put(item, handle);
+    count++;
+    return handle;
+  }
+
+  void remove(int handle) {
+    handles.remove(items[handle], -1);
+    items[handle] = null;
+    freeHandles.add(handle);
+    count--;
+  }
+
+  void set(int handle, float x, float y, float w, float h) {
+    xs[handle] = x;
+    ys[handle] = y;
+    ws[handle] = w;
+    hs[handle] = h;
+  }
+
+  int size() {
+    return count;
+  }
+
+  void clear() {
+    Arrays.fill(items, 0, limit, null);
+    limit = 0;
+    count = 0;
+    freeHandles.clear();
+    handles.clear();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+/**
+ * The results of {@link World#moveAll(Item[], float[], float[], int, CollisionFilter, MoveResult)}, packed into flat
+ * arrays. Item i of the batch ended up at {@code xs[i], ys[i]}, and the collisions of its move are
+ * {@code collisions.get(offsets[i])} up to but not including {@code collisions.get(offsets[i + 1])}, in the order
+ * {@link World#check(Item, float, float, CollisionFilter)} would have returned them.
+ * <br>
+ * A MoveResult can be reused for any number of batches; its arrays only grow.
+ */
+public class MoveResult {
+  /**
+   * How many items were in the last batch.
+   */
+  public int count;
+  public float[] xs = new float[16];
+  public float[] ys = new float[16];
+  /**
+   * Where the collisions of each item start; offsets[count] is the total number of collisions.
+   */
+  public int[] offsets = new int[1];
+  public final Collisions collisions = new Collisions();
+
+  /**
+   * Returns the number of collisions of the given item's move.
+   */
+  public int size(int index) {
+    return offsets[index + 1] - offsets[index];
+  }
+
+  /**
+   * Returns the collision-th collision of the given item's move. The Collision is reused by every call, as with
+   * {@link Collisions#get(int)}.
+   */
+  public Collision get(int index, int collision) {
+    return collisions.get(offsets[index] + collision);
+  }
+
+  void begin(int count) {
+    this.count = count;
+    if (xs.length < count) {
+      xs = new float[count];
+      ys = new float[count];
+    }
+    if (offsets.length < count + 1) {
+      offsets = new int[count + 1];
+    }
+    offsets[0] = 0;
+    collisions.clear();
+  }
+
+  /**
+   * Drops the references to every item, so the last batch doesn't keep them from being collected.
+   */
+  public void clear() {
+    collisions.clear();
+    offsets[0] = 0;
+    count = 0;
+  }
+}
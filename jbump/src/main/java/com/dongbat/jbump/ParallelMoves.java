@@ -0,0 +1,818 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import com.dongbat.jbump.util.UniqueIntArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moves a batch of items on a {@link World} across the threads of a {@link ForkJoinPool}, with exactly the outcome of
+ * {@link World#moveAll(Item[], float[], float[], int, CollisionFilter, MoveResult)}.
+ * <br>
+ * The movers are split into islands: two movers whose swept rects, from where they start to their goal, come within
+ * {@link #getMargin()} of each other are on the same island. The movers of an island are moved one after the other in
+ * batch order, and the islands are spread over the pool. Nothing is moved in the World until every island is done;
+ * meanwhile each worker keeps where the movers of its island have got to to itself, so each island sees its own movers
+ * there and every other item where it started. Islands
+ * bigger than {@link #MAX_ISLAND} movers would spend more time looking through their own movers than they save, so they
+ * are moved afterwards on the calling thread, with the rest of the batch already in place. A response
+ * can take a mover out of its swept rect, like {@link Response#bounce} does, and then it may have reached into another
+ * island. Every mover that left its swept rect is checked against the movers of the other islands afterwards, and if
+ * it came near one of them, the batch is thrown away and moved again one item at a time, so the outcome is always the
+ * same as moving them in order. Crowds dense enough to chain into a few big islands are better off with
+ * {@link #moveAllOptimistic(Item[], float[], float[], int, CollisionFilter, MoveResult)}.
+ * <br>
+ * Nothing else may use the World while a batch runs. The filter and the responses are called from several threads at
+ * once, so they must be safe for that, and a custom {@link Response} must only query the World through
+ * {@link World#project(Item, float, float, float, float, float, float, CollisionFilter, Collisions)} with the filter it
+ * is given. Only one batch may run on a ParallelMoves at a time. This class isn't available on GWT.
+ */
+public class ParallelMoves<E> {
+  /**
+   * The fewest movers worth handing to a worker of their own.
+   */
+  private static final int MIN_CHUNK = 32;
+  private static final int SPECULATE = 0, POOLED = 1, LIVE = 2;
+  /**
+   * The most movers an island may have to be moved on the pool.
+   */
+  public static final int MAX_ISLAND = 64;
+
+  private final World<E> world;
+  private final ForkJoinPool pool;
+  private float margin;
+  private final ThreadLocal<QueryContext> contexts = new ThreadLocal<QueryContext>() {
+    @Override
+    protected QueryContext initialValue() {
+      return new QueryContext();
+    }
+  };
+  private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+  private final Batch batch = new Batch();
+  private final Chunk serial = new Chunk(-1, LIVE);
+  private final UniqueIntArray seen = new UniqueIntArray();
+
+  // the batch being moved; its goals and filter are only held while it runs
+  private float[] goalXs, goalYs;
+  private CollisionFilter filter;
+  private MoveResult result;
+  private int count;
+  private int[] handles = new int[16];
+  /**
+   * The position in the batch of the mover with each handle. Entries for items that aren't in the batch are left over
+   * from earlier batches, so an entry only counts if it is below count and handles has the same handle there.
+   */
+  private int[] moverOf = new int[16];
+  private float[] startXs = new float[16], startYs = new float[16];
+  private float[] lefts = new float[16], tops = new float[16], rights = new float[16], bottoms = new float[16];
+  private long[] keys = new long[16];
+  /**
+   * The movers that reach into each strip of the sweep, sorted by their left edge; strip k is stripMovers[stripStarts[k]]
+   * up to but not including stripMovers[stripStarts[k + 1]].
+   */
+  private int[] stripMovers = new int[16], stripStarts = new int[17], stripEnds = new int[16];
+  private int stripCount;
+  private float stripTop, stripHeight;
+  private int[] parents = new int[16];
+  /**
+   * The movers of each island in batch order; island i is islandMovers[islandStarts[i]] up to but not including
+   * islandMovers[islandStarts[i + 1]].
+   */
+  private int[] islandMovers = new int[16], islandStarts = new int[17], moverIslands = new int[16];
+  private int islandCount;
+  /**
+   * Which chunk moved each mover, and where its collisions are in that chunk's collisions.
+   */
+  private int[] chunkOf = new int[16], colStarts = new int[16], colEnds = new int[16];
+  /**
+   * The bounds of every rect each mover has swept and where it ended up. That is its swept rect unless a response took
+   * it out of there; the movers that were are the escapees.
+   */
+  private float[] reachLefts = new float[16], reachTops = new float[16], reachRights = new float[16],
+      reachBottoms = new float[16];
+  private int[] escapees = new int[16];
+  /**
+   * The movers whose speculated result can't be kept, since an earlier mover moved near them.
+   */
+  private boolean[] stale = new boolean[16];
+
+  /**
+   * @param pool runs the islands of each batch; it can be shared with other work
+   */
+  public ParallelMoves(World<E> world, ForkJoinPool pool) {
+    this.world = world;
+    this.pool = pool;
+    margin = world.getCellSize() / 64f;
+  }
+
+  public World<E> getWorld() {
+    return world;
+  }
+
+  public ForkJoinPool getPool() {
+    return pool;
+  }
+
+  public float getMargin() {
+    return margin;
+  }
+
+  /**
+   * Sets how close the swept rects of two movers may come before they are put on the same island. It keeps rounding
+   * errors in the collision tests from reaching across islands, so it should stay a small positive distance; the default
+   * is a 64th of the World's cell size.
+   */
+  public void setMargin(float margin) {
+    this.margin = margin;
+  }
+
+  /**
+   * The same as {@link World#moveAll(Item[], float[], float[], int, CollisionFilter, MoveResult)}, with independent
+   * groups of movers moved on the pool. A batch that moves the same item twice, or whose movers all form one island, is
+   * moved by the World on the calling thread.
+   * @return result
+   * @throws IllegalArgumentException if one of the items isn't in the World; nothing has been moved then
+   */
+  public MoveResult moveAll(Item[] items, float[] goalXs, float[] goalYs, int count, CollisionFilter filter, MoveResult result) {
+    if (count < 2 || !lookup(items, goalXs, goalYs, count)) {
+      return world.moveAll(items, goalXs, goalYs, count, filter, result);
+    }
+    group(count);
+    if (islandCount < 2) {
+      return world.moveAll(items, goalXs, goalYs, count, filter, result);
+    }
+    this.goalXs = goalXs;
+    this.goalYs = goalYs;
+    this.filter = filter;
+    this.result = result;
+    result.begin(count);
+    int chunkCount = split();
+    try {
+      if (chunkCount == 1) {
+        chunks.get(0).compute();
+      } else if (chunkCount > 1) {
+        batch.reinitialize();
+        batch.chunkCount = chunkCount;
+        pool.invoke(batch);
+      }
+      place(chunkCount);
+      serial.compute();
+      if (!independent(count)) {
+        restore(count);
+        return world.moveAll(items, goalXs, goalYs, count, filter, result);
+      }
+      collect(count);
+      return result;
+    } finally {
+      for (int i = 0; i < chunkCount; i++) {
+        chunks.get(i).collisions.clear();
+      }
+      serial.collisions.clear();
+      this.goalXs = null;
+      this.goalYs = null;
+      this.filter = null;
+      this.result = null;
+    }
+  }
+
+  /**
+   * The same as {@link #moveAll(Item[], float[], float[], int, CollisionFilter, MoveResult)}, for crowds whose swept
+   * rects chain together into islands too big to share out, even though most movers don't actually meet. Every mover is
+   * first moved on the pool as if it was the only one moving, against the World as it was. Then, on the calling thread,
+   * each mover in batch order either keeps that result or, if an earlier mover that moved started or ended up within
+   * the margin of anywhere it reached, is moved again with every earlier mover in place. Only those have to be moved
+   * twice, and the outcome is that of moving them in order.
+   * @return result
+   * @throws IllegalArgumentException if one of the items isn't in the World; nothing has been moved then
+   */
+  public MoveResult moveAllOptimistic(Item[] items, float[] goalXs, float[] goalYs, int count, CollisionFilter filter, MoveResult result) {
+    if (count < 2 || !lookup(items, goalXs, goalYs, count)) {
+      return world.moveAll(items, goalXs, goalYs, count, filter, result);
+    }
+    this.goalXs = goalXs;
+    this.goalYs = goalYs;
+    this.filter = filter;
+    this.result = result;
+    result.begin(count);
+    int parts = pool.getParallelism() * 4;
+    int chunkSize = Math.max(MIN_CHUNK, (count + parts - 1) / parts);
+    int chunkCount = (count + chunkSize - 1) / chunkSize;
+    for (int n = 0; n < chunkCount; n++) {
+      if (chunks.size() == n) {
+        chunks.add(new Chunk(n, SPECULATE));
+      }
+      Chunk chunk = chunks.get(n);
+      chunk.reinitialize();
+      chunk.mode = SPECULATE;
+      chunk.first = n * chunkSize;
+      chunk.last = Math.min(count, chunk.first + chunkSize);
+    }
+    try {
+      if (chunkCount == 1) {
+        chunks.get(0).compute();
+      } else {
+        batch.reinitialize();
+        batch.chunkCount = chunkCount;
+        pool.invoke(batch);
+      }
+
+      // from here on the speculated reach of each mover is what the strips are built over
+      float[] swap = lefts;
+      lefts = reachLefts;
+      reachLefts = swap;
+      swap = tops;
+      tops = reachTops;
+      reachTops = swap;
+      swap = rights;
+      rights = reachRights;
+      reachRights = swap;
+      swap = bottoms;
+      bottoms = reachBottoms;
+      reachBottoms = swap;
+      strips(count);
+
+      // go through the batch in order, with the World as the earlier movers left it; a mover has to be moved again if
+      // an earlier one that moved started or ended up near where it reached
+      ItemTable table = world.table;
+      SpatialIndex index = world.getIndex();
+      boolean[] stale = this.stale;
+      Arrays.fill(stale, 0, count, false);
+      QueryContext context = contexts.get();
+      serial.collisions.clear();
+      // only to track the reach, since the serial chunk moves its movers live
+      context.overlay = serial;
+      try {
+        for (int i = 0; i < count; i++) {
+          int handle = handles[i];
+          float w = table.ws[handle], h = table.hs[handle];
+          float left = lefts[i], top = tops[i], right = rights[i], bottom = bottoms[i];
+          if (stale[i]) {
+            move(i, context, serial, LIVE);
+          } else if (result.xs[i] != startXs[i] || result.ys[i] != startYs[i]) {
+            index.update(handle, startXs[i], startYs[i], w, h, result.xs[i], result.ys[i], w, h);
+            table.set(handle, result.xs[i], result.ys[i], w, h);
+          }
+          float x = result.xs[i], y = result.ys[i];
+          if (x != startXs[i] || y != startYs[i]) {
+            // its speculated reach covers where it started; moved again, it may have ended up outside of it
+            markStale(i, Math.min(left, x), Math.min(top, y), Math.max(right, x + w), Math.max(bottom, y + h));
+          }
+        }
+      } finally {
+        context.overlay = null;
+      }
+      collect(count);
+      return result;
+    } finally {
+      for (int i = 0; i < chunkCount; i++) {
+        chunks.get(i).collisions.clear();
+      }
+      serial.collisions.clear();
+      this.goalXs = null;
+      this.goalYs = null;
+      this.filter = null;
+      this.result = null;
+    }
+  }
+
+  /**
+   * Looks up the movers and works out their swept rects. Returns false if an item is in the batch twice, since its
+   * second move can't be planned from where it starts.
+   */
+  private boolean lookup(Item[] items, float[] goalXs, float[] goalYs, int count) {
+    ensureCapacity(count);
+    ItemTable table = world.table;
+    UniqueIntArray seen = this.seen;
+    seen.clear();
+    boolean unique = true;
+    for (int i = 0; i < count; i++) {
+      int handle = table.handleOf(items[i]);
+      if (handle < 0) {
+        throw new IllegalArgumentException("Item " + items[i] + " isn't in this World");
+      }
+      unique &= seen.add(handle);
+      handles[i] = handle;
+    }
+    if (!unique) {
+      return false;
+    }
+
+    this.count = count;
+    int[] moverOf = this.moverOf = ensureSize(this.moverOf, table.limit);
+    for (int i = 0; i < count; i++) {
+      int handle = handles[i];
+      moverOf[handle] = i;
+      float x = table.xs[handle], y = table.ys[handle], w = table.ws[handle], h = table.hs[handle];
+      float goalX = goalXs[i], goalY = goalYs[i];
+      startXs[i] = x;
+      startYs[i] = y;
+      lefts[i] = Math.min(x, goalX);
+      tops[i] = Math.min(y, goalY);
+      rights[i] = Math.max(x, goalX) + w;
+      bottoms[i] = Math.max(y, goalY) + h;
+    }
+    return true;
+  }
+
+  /**
+   * Sorts the movers into islands of those whose rects in lefts, tops, rights and bottoms come within the margin of
+   * each other.
+   */
+  private void group(int count) {
+    strips(count);
+    float[] lefts = this.lefts, tops = this.tops, rights = this.rights, bottoms = this.bottoms;
+    float margin = this.margin;
+    for (int i = 0; i < count; i++) {
+      parents[i] = i;
+    }
+    // sweep along x through each strip, joining each rect to those it meets
+    for (int k = 0; k < stripCount; k++) {
+      for (int a = stripStarts[k], end = stripStarts[k + 1]; a < end; a++) {
+        int i = stripMovers[a];
+        float right = rights[i] + margin, top = tops[i] - margin, bottom = bottoms[i] + margin;
+        for (int b = a + 1; b < end; b++) {
+          int j = stripMovers[b];
+          if (lefts[j] > right) {
+            break;
+          }
+          if (tops[j] <= bottom && bottoms[j] >= top) {
+            join(i, j);
+          }
+        }
+      }
+    }
+
+    // number the islands by their first mover and list their movers in batch order
+    int[] starts = islandStarts;
+    int islands = 0;
+    for (int i = 0; i < count; i++) {
+      int root = find(i);
+      if (root == i) {
+        // parents of roots aren't needed any more, so they hold the island number, counted from -1 down
+        starts[islands] = 0;
+        parents[i] = -1 - islands++;
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      starts[island(i)]++;
+    }
+    int total = 0;
+    for (int k = 0; k < islands; k++) {
+      int size = starts[k];
+      starts[k] = total;
+      total += size;
+    }
+    starts[islands] = total;
+    for (int i = 0; i < count; i++) {
+      int k = island(i);
+      moverIslands[i] = k;
+      islandMovers[starts[k]++] = i;
+    }
+    for (int k = islands; k > 0; k--) {
+      starts[k] = starts[k - 1];
+    }
+    starts[0] = 0;
+    islandCount = islands;
+  }
+
+  /**
+   * Puts the movers into horizontal strips by their rects in lefts, tops, rights and bottoms, each strip holding those
+   * that come within the margin of it sorted by their left edge. Looking for the rects near a given one then only passes
+   * over rects at about the same y, and can stop at the first one that starts to the right of it.
+   */
+  private void strips(int count) {
+    float[] lefts = this.lefts, tops = this.tops, bottoms = this.bottoms;
+    float margin = this.margin;
+    float minTop = Float.POSITIVE_INFINITY, maxBottom = Float.NEGATIVE_INFINITY, heights = 0;
+    for (int i = 0; i < count; i++) {
+      int bits = Float.floatToIntBits(lefts[i]);
+      bits ^= bits >> 31 & 0x7FFFFFFF;
+      keys[i] = (long) bits << 32 | i;
+      minTop = Math.min(minTop, tops[i]);
+      maxBottom = Math.max(maxBottom, bottoms[i]);
+      heights += bottoms[i] - tops[i];
+    }
+
+    World.sortKeys(keys, 0, count - 1);
+    float span = maxBottom - minTop + margin * 2;
+    int stripCount = this.stripCount = (int) Math.max(1, Math.min(Math.sqrt(count), span / (heights / count * 2)));
+    float stripHeight = this.stripHeight = span / stripCount;
+    stripTop = minTop;
+    int[] stripStarts = this.stripStarts = ensureSize(this.stripStarts, stripCount + 1);
+    Arrays.fill(stripStarts, 0, stripCount + 1, 0);
+    for (int i = 0; i < count; i++) {
+      stripStarts[strip(tops[i] - margin, minTop, stripHeight, stripCount)]++;
+      stripStarts[strip(bottoms[i] + margin, minTop, stripHeight, stripCount) + 1]--;
+    }
+    // the counts are differences between neighbours so far; sum them up and turn them into where each strip starts
+    int entries = 0;
+    for (int k = 0, open = 0; k < stripCount; k++) {
+      open += stripStarts[k];
+      stripStarts[k] = entries;
+      entries += open;
+    }
+    stripStarts[stripCount] = entries;
+    int[] stripMovers = this.stripMovers = ensureSize(this.stripMovers, entries);
+    int[] stripEnds = this.stripEnds = ensureSize(this.stripEnds, stripCount);
+    System.arraycopy(stripStarts, 0, stripEnds, 0, stripCount);
+    for (int a = 0; a < count; a++) {
+      int i = (int) keys[a];
+      int last = strip(bottoms[i] + margin, minTop, stripHeight, stripCount);
+      for (int k = strip(tops[i] - margin, minTop, stripHeight, stripCount); k <= last; k++) {
+        stripMovers[stripEnds[k]++] = i;
+      }
+    }
+  }
+
+  private static int strip(float y, float minTop, float stripHeight, int stripCount) {
+    return Math.max(0, Math.min(stripCount - 1, (int) ((y - minTop) / stripHeight)));
+  }
+
+  private static int[] ensureSize(int[] array, int size) {
+    return array.length < size ? new int[Math.max(size, array.length * 2)] : array;
+  }
+
+  private int find(int i) {
+    int[] parents = this.parents;
+    while (parents[i] >= 0 && parents[i] != i) {
+      int parent = parents[i];
+      if (parents[parent] >= 0) {
+        parents[i] = parents[parent];
+      }
+      i = parent;
+    }
+    return i;
+  }
+
+  private void join(int i, int j) {
+    int a = find(i), b = find(j);
+    if (a != b) {
+      parents[Math.max(a, b)] = Math.min(a, b);
+    }
+  }
+
+  private int island(int i) {
+    return -1 - parents[find(i)];
+  }
+
+  /**
+   * Hands out whole islands to chunks of roughly even size, in island order, and the ones bigger than MAX_ISLAND to
+   * the serial chunk. Returns the number of chunks for the pool.
+   */
+  private int split() {
+    int[] starts = islandStarts;
+    int pooled = 0;
+    for (int k = 0; k < islandCount; k++) {
+      int size = starts[k + 1] - starts[k];
+      if (size <= MAX_ISLAND) {
+        pooled += size;
+      }
+    }
+    // a few chunks per worker, so that one that finishes early can take over from a slow one
+    int parts = pool.getParallelism() * 4;
+    int chunkSize = Math.max(MIN_CHUNK, (pooled + parts - 1) / parts);
+    int chunkCount = 0;
+    Chunk chunk = null;
+    serial.islandCount = 0;
+    serial.moverCount = 0;
+    for (int k = 0; k < islandCount; k++) {
+      int size = starts[k + 1] - starts[k];
+      if (size > MAX_ISLAND) {
+        serial.add(k, size);
+        continue;
+      }
+      if (chunk == null || chunk.moverCount >= chunkSize) {
+        if (chunks.size() == chunkCount) {
+          chunks.add(new Chunk(chunkCount, POOLED));
+        }
+        chunk = chunks.get(chunkCount++);
+        chunk.reinitialize();
+        chunk.mode = POOLED;
+        chunk.islandCount = 0;
+        chunk.moverCount = 0;
+      }
+      chunk.add(k, size);
+    }
+    return chunkCount;
+  }
+
+  /**
+   * Marks every mover after i whose rect comes within the margin of the given one as stale.
+   */
+  private void markStale(int i, float left, float top, float right, float bottom) {
+    left -= margin;
+    top -= margin;
+    right += margin;
+    bottom += margin;
+    int last = strip(bottom, stripTop, stripHeight, stripCount);
+    for (int k = strip(top, stripTop, stripHeight, stripCount); k <= last; k++) {
+      for (int a = stripStarts[k], end = stripStarts[k + 1]; a < end; a++) {
+        int j = stripMovers[a];
+        if (lefts[j] > right) {
+          break;
+        }
+        if (j > i && rights[j] >= left && tops[j] <= bottom && bottoms[j] >= top) {
+          stale[j] = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns true if no mover came near a mover of another island while they were moved. Only the movers that left
+   * their swept rect need to be checked, since the islands were formed so that those rects are apart.
+   */
+  private boolean independent(int count) {
+    int[] escapees = this.escapees;
+    int escapeeCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (reachLefts[i] != lefts[i] || reachTops[i] != tops[i] || reachRights[i] != rights[i]
+          || reachBottoms[i] != bottoms[i]) {
+        escapees[escapeeCount++] = i;
+      }
+    }
+    float margin = this.margin;
+    for (int e = 0; e < escapeeCount; e++) {
+      int i = escapees[e];
+      float left = reachLefts[i], top = reachTops[i], right = reachRights[i], bottom = reachBottoms[i];
+      left -= margin;
+      top -= margin;
+      right += margin;
+      bottom += margin;
+      int island = moverIslands[i];
+      // the movers that stayed in their swept rect are in the strips those rects reach into
+      int last = strip(bottom, stripTop, stripHeight, stripCount);
+      for (int k = strip(top, stripTop, stripHeight, stripCount); k <= last; k++) {
+        for (int a = stripStarts[k], end = stripStarts[k + 1]; a < end; a++) {
+          int j = stripMovers[a];
+          if (lefts[j] > right) {
+            break;
+          }
+          if (moverIslands[j] != island && reachRights[j] >= left && reachTops[j] <= bottom && reachBottoms[j] >= top
+              && reachLefts[j] <= right) {
+            return false;
+          }
+        }
+      }
+      // and those that didn't may be anywhere
+      for (int f = e + 1; f < escapeeCount; f++) {
+        int j = escapees[f];
+        if (moverIslands[j] != island && reachLefts[j] <= right && reachRights[j] >= left && reachTops[j] <= bottom
+            && reachBottoms[j] >= top) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Moves each mover that was moved by the first chunkCount chunks from where it started to where it ended up, in the
+   * table and the index.
+   */
+  private void place(int chunkCount) {
+    ItemTable table = world.table;
+    SpatialIndex index = world.getIndex();
+    float[] xs = result.xs, ys = result.ys;
+    for (int c = 0; c < chunkCount; c++) {
+      Chunk chunk = chunks.get(c);
+      for (int n = 0; n < chunk.islandCount; n++) {
+        int k = chunk.islands[n];
+        for (int m = islandStarts[k], end = islandStarts[k + 1]; m < end; m++) {
+          int i = islandMovers[m], handle = handles[i];
+          float x1 = startXs[i], y1 = startYs[i], x2 = xs[i], y2 = ys[i];
+          if (x1 != x2 || y1 != y2) {
+            float w = table.ws[handle], h = table.hs[handle];
+            index.update(handle, x1, y1, w, h, x2, y2, w, h);
+            table.set(handle, x2, y2, w, h);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Puts every mover back where it started, after a batch that has to be moved again.
+   */
+  private void restore(int count) {
+    ItemTable table = world.table;
+    SpatialIndex index = world.getIndex();
+    for (int i = 0; i < count; i++) {
+      int handle = handles[i];
+      float x1 = table.xs[handle], y1 = table.ys[handle], x2 = startXs[i], y2 = startYs[i];
+      if (x1 != x2 || y1 != y2) {
+        float w = table.ws[handle], h = table.hs[handle];
+        index.update(handle, x1, y1, w, h, x2, y2, w, h);
+        table.set(handle, x2, y2, w, h);
+      }
+    }
+  }
+
+  /**
+   * Packs the collisions of every mover into the result in batch order.
+   */
+  private void collect(int count) {
+    MoveResult result = this.result;
+    Collisions collisions = result.collisions;
+    for (int i = 0; i < count; i++) {
+      Collisions part = chunkOf[i] < 0 ? serial.collisions : chunks.get(chunkOf[i]).collisions;
+      for (int c = colStarts[i], end = colEnds[i]; c < end; c++) {
+        collisions.add(part.get(c));
+      }
+      result.offsets[i + 1] = collisions.size();
+    }
+  }
+
+  private void ensureCapacity(int count) {
+    if (handles.length < count) {
+      int size = Math.max(count, handles.length * 2);
+      handles = new int[size];
+      startXs = new float[size];
+      startYs = new float[size];
+      lefts = new float[size];
+      tops = new float[size];
+      rights = new float[size];
+      bottoms = new float[size];
+      keys = new long[size];
+      parents = new int[size];
+      islandMovers = new int[size];
+      islandStarts = new int[size + 1];
+      moverIslands = new int[size];
+      chunkOf = new int[size];
+      colStarts = new int[size];
+      colEnds = new int[size];
+      reachLefts = new float[size];
+      reachTops = new float[size];
+      reachRights = new float[size];
+      reachBottoms = new float[size];
+      escapees = new int[size];
+      stale = new boolean[size];
+    }
+  }
+
+  private final class Batch extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    int chunkCount;
+
+    @Override
+    protected void compute() {
+      invokeAll(chunks.subList(0, chunkCount));
+    }
+  }
+
+  /**
+   * Moves the i-th mover of the batch in the scratch space of context, adding its collisions to those of chunk and its
+   * position to the result. Only a live move changes the World; the others leave that to the calling thread.
+   */
+  private void move(int i, QueryContext context, Chunk chunk, int mode) {
+    ItemTable table = world.table;
+    int handle = handles[i];
+    float w = table.ws[handle], h = table.hs[handle];
+    chunk.reachX1 = lefts[i];
+    chunk.reachY1 = tops[i];
+    chunk.reachX2 = rights[i];
+    chunk.reachY2 = bottoms[i];
+    Collisions collisions = chunk.collisions;
+    chunkOf[i] = chunk.index;
+    colStarts[i] = collisions.size();
+    Response.Result moved = world.resolve(handle, goalXs[i], goalYs[i], filter, collisions, context);
+    float x = moved.goalX, y = moved.goalY;
+    colEnds[i] = collisions.size();
+    result.xs[i] = x;
+    result.ys[i] = y;
+    if (mode == LIVE && (x != startXs[i] || y != startYs[i])) {
+      world.getIndex().update(handle, startXs[i], startYs[i], w, h, x, y, w, h);
+      table.set(handle, x, y, w, h);
+    }
+    reachLefts[i] = Math.min(chunk.reachX1, x);
+    reachTops[i] = Math.min(chunk.reachY1, y);
+    reachRights[i] = Math.max(chunk.reachX2, x + w);
+    reachBottoms[i] = Math.max(chunk.reachY2, y + h);
+  }
+
+  /**
+   * A share of the batch for one worker. While it runs, it is the {@link QueryContext.MoveOverlay} of the worker's
+   * context: it grows the reach of the mover being moved to cover every rect project sweeps, and when pooled, it shows
+   * project where the movers of the current island have got to, which only this worker knows until the calling thread
+   * puts them in the World.
+   */
+  private final class Chunk extends RecursiveAction implements QueryContext.MoveOverlay {
+    private static final long serialVersionUID = 1L;
+
+    final int index;
+    /**
+     * How this chunk moves its movers: SPECULATE runs the movers from first to last, POOLED and LIVE run whole islands.
+     * The LIVE chunk holds the islands that are too big for the pool; it runs on the calling thread once the rest of the
+     * batch is in the index.
+     */
+    int mode;
+    int first, last;
+    int[] islands = new int[16];
+    int islandCount, moverCount;
+    final Collisions collisions = new Collisions();
+    /**
+     * The island being moved, while pooled.
+     */
+    int island = -1;
+    float reachX1, reachY1, reachX2, reachY2;
+
+    Chunk(int index, int mode) {
+      this.index = index;
+      this.mode = mode;
+    }
+
+    void add(int island, int size) {
+      if (islandCount == islands.length) {
+        islands = Arrays.copyOf(islands, islandCount * 2);
+      }
+      islands[islandCount++] = island;
+      moverCount += size;
+    }
+
+    @Override
+    public void addCandidates(float left, float top, float right, float bottom, UniqueIntArray candidates) {
+      reachX1 = Math.min(reachX1, left);
+      reachY1 = Math.min(reachY1, top);
+      reachX2 = Math.max(reachX2, right);
+      reachY2 = Math.max(reachY2, bottom);
+      if (island < 0) {
+        return;
+      }
+      // the movers of the island are still where they started in the index
+      ItemTable table = world.table;
+      float[] xs = result.xs, ys = result.ys;
+      for (int m = islandStarts[island], end = islandStarts[island + 1]; m < end; m++) {
+        int i = islandMovers[m], handle = handles[i];
+        float x = xs[i], y = ys[i];
+        if (x <= right && y <= bottom && x + table.ws[handle] >= left && y + table.hs[handle] >= top) {
+          candidates.add(handle);
+        }
+      }
+    }
+
+    @Override
+    public boolean getPosition(int handle, Point position) {
+      if (island < 0) {
+        return false;
+      }
+      int i = moverOf[handle];
+      if (i >= count || handles[i] != handle || moverIslands[i] != island) {
+        return false;
+      }
+      position.set(result.xs[i], result.ys[i]);
+      return true;
+    }
+
+    @Override
+    protected void compute() {
+      QueryContext context = contexts.get();
+      collisions.clear();
+      context.overlay = this;
+      try {
+        if (mode == SPECULATE) {
+          for (int i = first; i < last; i++) {
+            move(i, context, this, SPECULATE);
+          }
+          return;
+        }
+        float[] xs = result.xs, ys = result.ys;
+        for (int n = 0; n < islandCount; n++) {
+          int start = islandStarts[islands[n]], end = islandStarts[islands[n] + 1];
+          if (mode == POOLED) {
+            // each mover is where it started until it has been moved
+            for (int m = start; m < end; m++) {
+              int i = islandMovers[m];
+              xs[i] = startXs[i];
+              ys[i] = startYs[i];
+            }
+            island = islands[n];
+          }
+          for (int m = start; m < end; m++) {
+            move(islandMovers[m], context, this, mode);
+          }
+        }
+      } finally {
+        island = -1;
+        context.overlay = null;
+      }
+    }
+  }
+}
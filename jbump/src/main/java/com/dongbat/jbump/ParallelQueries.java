@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs large batches of queries on a {@link World} across the threads of a {@link ForkJoinPool}. A batch is split into
+ * chunks of consecutive queries, each worker runs its chunks with a {@link QueryContext} of its own, and the results are
+ * put back together in query order, so a batch gives exactly what the same queries one by one on the World would.
+ * <br>
+ * Nothing may add, remove or move items in the World while a batch runs, and the filter is called from several threads
+ * at once, so it must be safe for that. Only one batch may run on a ParallelQueries at a time; use one per thread that
+ * starts batches. This class isn't available on GWT.
+ */
+public class ParallelQueries<E> {
+  /**
+   * The fewest queries worth handing to a worker of their own.
+   */
+  private static final int MIN_CHUNK = 32;
+  private static final int RECTS = 0, SEGMENTS = 1, RAYS = 2;
+
+  private final World<E> world;
+  private final ForkJoinPool pool;
+  private final ThreadLocal<QueryContext> contexts = new ThreadLocal<QueryContext>() {
+    @Override
+    protected QueryContext initialValue() {
+      return new QueryContext();
+    }
+  };
+  private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+  private final Batch batch = new Batch();
+
+  /**
+   * @param pool runs the chunks of each batch; it can be shared with other work
+   */
+  public ParallelQueries(World<E> world, ForkJoinPool pool) {
+    this.world = world;
+    this.pool = pool;
+  }
+
+  public World<E> getWorld() {
+    return world;
+  }
+
+  public ForkJoinPool getPool() {
+    return pool;
+  }
+
+  /**
+   * The same as {@link World#queryRects(float[], int, CollisionFilter, BatchResult)}, with the rectangles spread over
+   * the pool. The items found by each query are in the order that method would give them.
+   * @param rects count rectangles, packed as x, y, w, h
+   */
+  public BatchResult queryRects(float[] rects, int count, CollisionFilter filter, BatchResult result) {
+    return run(RECTS, rects, count, filter, result);
+  }
+
+  /**
+   * Runs {@link World#querySegment(float, float, float, float, CollisionFilter, ArrayList)} for each segment, spread
+   * over the pool. The items found by each query are in order along the segment.
+   * @param segments count segments, packed as x1, y1, x2, y2
+   */
+  public BatchResult querySegments(float[] segments, int count, CollisionFilter filter, BatchResult result) {
+    return run(SEGMENTS, segments, count, filter, result);
+  }
+
+  /**
+   * Runs {@link World#queryRay(float, float, float, float, CollisionFilter, ArrayList)} for each ray, spread over the
+   * pool. The items found by each query are in order along the ray.
+   * @param rays count rays, packed as originX, originY, dirX, dirY
+   */
+  public BatchResult queryRays(float[] rays, int count, CollisionFilter filter, BatchResult result) {
+    return run(RAYS, rays, count, filter, result);
+  }
+
+  private BatchResult run(int kind, float[] data, int count, CollisionFilter filter, BatchResult result) {
+    // a few chunks per worker, so that one that finishes early can take over from a slow one
+    int chunkSize = Math.max(MIN_CHUNK, (count + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+    int chunkCount = (count + chunkSize - 1) / chunkSize;
+    while (chunks.size() < chunkCount) {
+      chunks.add(new Chunk());
+    }
+    for (int i = 0; i < chunkCount; i++) {
+      Chunk chunk = chunks.get(i);
+      chunk.reinitialize();
+      chunk.kind = kind;
+      chunk.data = data;
+      chunk.start = i * chunkSize;
+      chunk.count = Math.min(chunkSize, count - chunk.start);
+      chunk.filter = filter;
+    }
+    try {
+      if (chunkCount == 1) {
+        chunks.get(0).compute();
+      } else if (chunkCount > 1) {
+        batch.reinitialize();
+        batch.chunkCount = chunkCount;
+        pool.invoke(batch);
+      }
+      return merge(chunkCount, count, result);
+    } finally {
+      for (int i = 0; i < chunkCount; i++) {
+        Chunk chunk = chunks.get(i);
+        chunk.data = null;
+        chunk.filter = null;
+        Arrays.fill(chunk.result.items, 0, chunk.result.size(), null);
+      }
+    }
+  }
+
+  /**
+   * Packs the results of each chunk into result, in chunk order.
+   */
+  private BatchResult merge(int chunkCount, int count, BatchResult result) {
+    int total = 0;
+    for (int i = 0; i < chunkCount; i++) {
+      total += chunks.get(i).result.size();
+    }
+    result.begin(count, total);
+    int[] offsets = result.offsets;
+    int query = 0, size = 0;
+    for (int i = 0; i < chunkCount; i++) {
+      BatchResult part = chunks.get(i).result;
+      int partCount = part.queryCount, partSize = part.size();
+      for (int q = 0; q < partCount; q++) {
+        offsets[query++] = size + part.offsets[q];
+      }
+      System.arraycopy(part.handles, 0, result.handles, size, partSize);
+      System.arraycopy(part.items, 0, result.items, size, partSize);
+      size += partSize;
+    }
+    offsets[count] = size;
+    return result;
+  }
+
+  private final class Batch extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    int chunkCount;
+
+    @Override
+    protected void compute() {
+      invokeAll(chunks.subList(0, chunkCount));
+    }
+  }
+
+  private final class Chunk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    int kind;
+    float[] data;
+    int start, count;
+    CollisionFilter filter;
+    final BatchResult result = new BatchResult();
+    final ArrayList<Item> items = new ArrayList<Item>();
+    float[] rects = new float[0];
+
+    @Override
+    protected void compute() {
+      QueryContext context = contexts.get();
+      if (kind == RECTS) {
+        // World.queryRects reads from the start of the array
+        if (rects.length < count * 4) {
+          rects = new float[count * 4];
+        }
+        System.arraycopy(data, start * 4, rects, 0, count * 4);
+        world.queryRects(rects, count, filter, result, context);
+        return;
+      }
+      BatchResult result = this.result;
+      ArrayList<Item> items = this.items;
+      result.begin(count, 0);
+      int size = 0;
+      for (int q = 0; q < count; q++) {
+        int i = (start + q) * 4;
+        if (kind == SEGMENTS) {
+          world.querySegment(data[i], data[i + 1], data[i + 2], data[i + 3], filter, items, context);
+        } else {
+          world.queryRay(data[i], data[i + 1], data[i + 2], data[i + 3], filter, items, context);
+        }
+        result.offsets[q] = size;
+        result.ensureCapacity(size + items.size());
+        for (int j = 0, n = items.size(); j < n; j++) {
+          Item item = items.get(j);
+          result.handles[size] = world.handleOf(item);
+          result.items[size++] = item;
+        }
+      }
+      result.offsets[count] = size;
+      items.clear();
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+/**
+ * Receives candidates from {@link SpatialIndex#queryRect(float, float, float, float, QueryCallback, QueryContext)}
+ * and {@link SpatialIndex#queryPoint(float, float, QueryCallback, QueryContext)} one at a time, as the index finds
+ * them, so that a query that only needs the first hit doesn't walk the rest of the area. It is the counterpart of
+ * {@link RaycastCallback} for areas.
+ */
+public interface QueryCallback {
+
+  /**
+   * @param handle the handle of an item that might touch the queried area
+   * @return true to keep looking, or false to end the search
+   */
+  boolean reportCandidate(int handle);
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import com.dongbat.jbump.util.IntArray;
+import com.dongbat.jbump.util.UniqueIntArray;
+
+import java.util.ArrayList;
+
+/**
+ * The scratch space that queries on a {@link World} and its {@link SpatialIndex} work in. Each World has one of its
+ * own, which the query methods without a context use, so those may only run on one thread at a time. The overloads
+ * that take a QueryContext use its buffers instead and share nothing else, so several threads can query the same World
+ * at once, each with its own context, as long as nothing adds, removes or moves items meanwhile.
+ * <br>
+ * A context isn't tied to a World and may be reused for any number of them, but must not be used by two threads at
+ * once. Everything in it is reused from query to query, so it only allocates while its buffers grow.
+ */
+public final class QueryContext {
+  // used by World
+  final ArrayList<ItemInfo> infos = new ArrayList<ItemInfo>(), spareInfos = new ArrayList<ItemInfo>();
+  long[] infoKeys = new long[16];
+  ItemInfo[] infoOrder = new ItemInfo[16];
+  final Point ti = new Point();
+  final IntPoint normalX = new IntPoint(), normalY = new IntPoint();
+  final RectHelper rectHelper = new RectHelper();
+  final Levels<World.FirstHitCallback> firstHits = new Levels<World.FirstHitCallback>() {
+    @Override
+    World.FirstHitCallback create() {
+      return new World.FirstHitCallback();
+    }
+  };
+  final Levels<World.AnyHitCallback> anyHits = new Levels<World.AnyHitCallback>() {
+    @Override
+    World.AnyHitCallback create() {
+      return new World.AnyHitCallback();
+    }
+  };
+  final Levels<World.AreaCallback> areaCallbacks = new Levels<World.AreaCallback>() {
+    @Override
+    World.AreaCallback create() {
+      return new World.AreaCallback();
+    }
+  };
+  final Levels<World.LineCallback> lineCallbacks = new Levels<World.LineCallback>() {
+    @Override
+    World.LineCallback create() {
+      return new World.LineCallback();
+    }
+  };
+  final Levels<World.NearestSearch> nearestSearches = new Levels<World.NearestSearch>() {
+    @Override
+    World.NearestSearch create() {
+      return new World.NearestSearch();
+    }
+  };
+  final Point nearestCell = new Point();
+  final IntArray batchQueries = new IntArray(), batchHandles = new IntArray();
+  final UniqueIntArray batchSeen = new UniqueIntArray();
+  int[] batchStarts = new int[16], batchSorted = new int[64];
+  final World.VisitedFilter visitedFilter = new World.VisitedFilter(this);
+  final Levels<World.IdFilterAdapter> idFilters = new Levels<World.IdFilterAdapter>() {
+    @Override
+    World.IdFilterAdapter create() {
+      return new World.IdFilterAdapter();
+    }
+  };
+  Collisions checkCols = new Collisions();
+  final Collisions projectedCols = new Collisions();
+  final Response.Result checkResult = new Response.Result();
+  private final Levels<UniqueIntArray> candidates = new Levels<UniqueIntArray>() {
+    @Override
+    UniqueIntArray create() {
+      return new UniqueIntArray();
+    }
+  };
+
+  // set by ParallelMoves while it moves items in this context
+  MoveOverlay overlay;
+  final Point overlayPosition = new Point();
+
+  /**
+   * Shows project the items that ParallelMoves has moved but not yet put in the World, which still has them where they
+   * started.
+   */
+  interface MoveOverlay {
+    /**
+     * Called by project once the index has found the candidates for the rect swept from left,top to right,bottom. Adds
+     * the moved items that touch that rect where they are now.
+     */
+    void addCandidates(float left, float top, float right, float bottom, UniqueIntArray candidates);
+
+    /**
+     * Sets position to where the item with the given handle is now and returns true if it has been moved; otherwise
+     * returns false, and the World knows where it is.
+     */
+    boolean getPosition(int handle, Point position);
+  }
+
+  // used by the indexes
+  final Grid grid = new Grid();
+  final Rect cellRect = new Rect();
+  final Point cellPoint = new Point(), span = new Point();
+  final UniqueIntArray seen = new UniqueIntArray();
+  final GridIndex.CellCollector cellCollector = new GridIndex.CellCollector();
+  final Levels<GridIndex.RaycastTraversal> traversals = new Levels<GridIndex.RaycastTraversal>() {
+    @Override
+    GridIndex.RaycastTraversal create() {
+      return new GridIndex.RaycastTraversal();
+    }
+  };
+  long[] keys = new long[64];
+  int[] order = new int[64], counts = new int[64];
+  int[] stack = new int[64];
+  /**
+   * Where the next tree traversal starts on stack; a traversal that calls back raises it past its own pending nodes
+   * for as long as the callback runs, so a query started from the callback leaves them alone.
+   */
+  int stackTop;
+
+  /**
+   * Returns an empty candidate array. A filter or visitor may start another query on the same context while one is
+   * running, so each level of nesting gets its own array; every call must be paired with
+   * {@link #releaseCandidates()}.
+   */
+  UniqueIntArray acquireCandidates() {
+    UniqueIntArray candidates = this.candidates.acquire();
+    candidates.clear();
+    return candidates;
+  }
+
+  void releaseCandidates() {
+    candidates.release();
+  }
+
+  /**
+   * Hands out one object per level of nesting, for the scratch space that a query still needs while it calls a filter
+   * or callback, which may start another query on the same context. Every {@link #acquire()} must be paired with a
+   * {@link #release()}, innermost first.
+   */
+  abstract static class Levels<T> {
+    private final ArrayList<T> levels = new ArrayList<T>();
+    private int depth;
+
+    abstract T create();
+
+    T acquire() {
+      if (depth == levels.size()) {
+        levels.add(create());
+      }
+      return levels.get(depth++);
+    }
+
+    void release() {
+      depth--;
+    }
+  }
+}
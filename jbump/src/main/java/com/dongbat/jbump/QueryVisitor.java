@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+/**
+ * Receives the items found by the streaming queries in {@link World}, such as
+ * {@link World#queryRect(float, float, float, float, CollisionFilter, QueryVisitor)}, one at a time as they are found.
+ * Nothing is collected into a list or sorted, so hits don't arrive in any particular order, not even along a segment
+ * or ray.
+ */
+public interface QueryVisitor {
+
+  /**
+   * @param item an item that passed the filter and touches the queried area
+   * @param ti1 for segments and rays, where along it the item is entered, as a multiple of the segment or direction
+   *            vector; 0 for rectangle and point queries
+   * @param ti2 for segments and rays, where along it the item is left; 0 for rectangle and point queries
+   * @return true to keep going, or false to stop the query here
+   */
+  boolean visit(Item item, float ti1, float ti2);
+}
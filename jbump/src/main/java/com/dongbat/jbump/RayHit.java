@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+/**
+ * The result of {@link World#raycastFirst(float, float, float, float, CollisionFilter, RayHit)}: the first item a ray
+ * hits, and where. Meant to be reused from one raycast to the next.
+ */
+public class RayHit {
+  /**
+   * The item that was hit, or null if nothing was.
+   */
+  public Item item;
+  /**
+   * How far along the ray the item is entered, as a multiple of the direction vector; 0 if the ray starts inside it.
+   */
+  public float ti;
+  /**
+   * Where the ray enters the item.
+   */
+  public Point point = new Point();
+  /**
+   * The normal of the side the ray enters through; 0,0 if the ray starts inside the item.
+   */
+  public IntPoint normal = new IntPoint();
+
+  public RayHit() {
+  }
+
+  public void set(Item item, float ti, float x, float y, int normalX, int normalY) {
+    this.item = item;
+    this.ti = ti;
+    this.point.set(x, y);
+    this.normal.set(normalX, normalY);
+  }
+}
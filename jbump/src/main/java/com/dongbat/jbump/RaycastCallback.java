@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+/**
+ * Receives candidates from
+ * {@link SpatialIndex#raycast(float, float, float, float, float, RaycastCallback, QueryContext)}, and tells the index
+ * how far along the ray it still needs to look, in the style of Box2D's ray cast callbacks.
+ */
+public interface RaycastCallback {
+
+  /**
+   * @param handle the handle of an item that might intersect the ray before maxT
+   * @param maxT how far along the ray the index is currently looking, as a multiple of the direction vector
+   * @return the new limit, which should be no more than maxT. Return maxT to keep looking as far as before, or the
+   *         entry time of a hit to stop looking past it. Any negative value ends the search, though candidates the
+   *         index has already gathered may still be reported.
+   */
+  float reportCandidate(int handle, float maxT);
+}
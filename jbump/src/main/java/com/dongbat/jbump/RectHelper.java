@@ -49,8 +49,8 @@ public class RectHelper {
     float w = rect_detectCollision_diff.w;
     float h = rect_detectCollision_diff.h;
 
-    boolean overlaps = false;
-    Float ti = null;
+    boolean overlaps;
+    float ti;
     int nx = 0, ny = 0;
 
     if (rect_containsPoint(x, y, w, h, 0, 0)) {
@@ -72,16 +72,14 @@ public class RectHelper {
       int ny1 = rect_detectCollision_getSegmentIntersectionIndices_n1.y;
 
       //item tunnels into other
-      if (intersect && ti1 < 1 && abs(ti1 - ti2) >= DELTA //special case for rect going through another rect's corner
-        && (0 < ti1 + DELTA || 0 == ti1 && ti2 > 0)) {
-        ti = ti1;
-        nx = nx1;
-        ny = ny1;
-        overlaps = false;
+      if (!(intersect && ti1 < 1 && abs(ti1 - ti2) >= DELTA //special case for rect going through another rect's corner
+        && (0 < ti1 + DELTA || 0 == ti1 && ti2 > 0))) {
+        return null;
       }
-    }
-    if (ti == null) {
-      return null;
+      ti = ti1;
+      nx = nx1;
+      ny = ny1;
+      overlaps = false;
     }
     float tx, ty;
 
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 tao.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dongbat.jbump;
+
+import com.dongbat.jbump.util.IntArray;
+import com.dongbat.jbump.util.UniqueIntArray;
+
+/**
+ * The broadphase structure behind a {@link World}. A World keeps the exact rectangle of every {@link Item} itself and
+ * does all collision detection and response; a SpatialIndex only has to narrow down which items are worth checking.
+ * <br>
+ * Items are identified by the int handle the World assigned them, which is never negative, and which the World
+ * resolves with {@link World#getItem(int)}. A handle stays the same while its item is in the World, but may be given to
+ * another item after it has been removed.
+ * <br>
+ * Every query method adds candidate handles to a {@link UniqueIntArray} the caller provides, and never clears it. A
+ * candidate is any item whose stored rectangle might touch the queried area; returning extra candidates is allowed
+ * (the World does the exact test), but leaving out an item that does touch the area is not. The UniqueIntArray drops
+ * items that are found more than once, in constant time and without allocating, and keeps the rest in the order they
+ * were first found. The rectangle and point queries can also report their candidates to a {@link QueryCallback} as
+ * they find them, for queries that may be done before the whole area has been walked, just as
+ * {@link #raycast(float, float, float, float, float, RaycastCallback, QueryContext)} does for rays.
+ * <br>
+ * The rectangles passed to {@link #remove(int, float, float, float, float)} and
+ * {@link #update(int, float, float, float, float, float, float, float, float)} are always the ones the item was last
+ * added or updated with, so implementations don't need to store them.
+ * <br>
+ * Queries must keep any scratch state they need in the {@link QueryContext} they are given, or on the stack, and must
+ * not change the index, so that several threads can query it at once with their own contexts. The package-private
+ * fields of QueryContext hold what the built-in indexes need.
+ * <br>
+ * {@link GridIndex}, the uniform grid that bump.lua uses, is the default.
+ */
+public interface SpatialIndex {
+
+  void add(int handle, float x, float y, float w, float h);
+
+  void remove(int handle, float x, float y, float w, float h);
+
+  void update(int handle, float x1, float y1, float w1, float h1, float x2, float y2, float w2, float h2);
+
+  /**
+   * Removes every item.
+   */
+  void clear();
+
+  /**
+   * Gives back memory that is no longer needed after many items have been removed. This may do nothing.
+   */
+  void compact();
+
+  /**
+   * Adds every item that might touch the given rectangle to result.
+   */
+  void queryRect(float x, float y, float w, float h, UniqueIntArray result, QueryContext context);
+
+  /**
+   * Adds every item that might contain the given point to result.
+   */
+  void queryPoint(float x, float y, UniqueIntArray result, QueryContext context);
+
+  /**
+   * Reports every item that might touch the given rectangle to callback, in the order
+   * {@link #queryRect(float, float, float, float, UniqueIntArray, QueryContext)} would add them and each at most once,
+   * until callback returns false.
+   * @return false if callback ended the search
+   */
+  boolean queryRect(float x, float y, float w, float h, QueryCallback callback, QueryContext context);
+
+  /**
+   * Reports every item that might contain the given point to callback, like
+   * {@link #queryRect(float, float, float, float, QueryCallback, QueryContext)} does for a rectangle.
+   * @return false if callback ended the search
+   */
+  boolean queryPoint(float x, float y, QueryCallback callback, QueryContext context);
+
+  /**
+   * Adds every item that might intersect the segment from x1,y1 to x2,y2 to result.
+   */
+  void querySegment(float x1, float y1, float x2, float y2, UniqueIntArray result, QueryContext context);
+
+  /**
+   * Adds every item that might intersect the ray starting at originX,originY in the direction dirX,dirY to result.
+   */
+  void queryRay(float originX, float originY, float dirX, float dirY, UniqueIntArray result, QueryContext context);
+
+  /**
+   * Adds every item that might touch the area swept by the rectangle x,y,w,h as it moves to goalX,goalY to result. For a
+   * diagonal move that area is a hexagon rather than the move's whole bounding rectangle.
+   */
+  void querySweptRect(float x, float y, float w, float h, float goalX, float goalY, UniqueIntArray result, QueryContext context);
+
+  /**
+   * Adds a pair for every item that might touch each of the count rectangles packed into rects as x, y, w, h: the
+   * index of the rectangle goes into queries and the item's handle into handles, at the same position. The same pair
+   * may be added more than once, and pairs come in no particular order.
+   */
+  void queryRects(float[] rects, int count, IntArray queries, IntArray handles, QueryContext context);
+
+  /**
+   * Like {@link #queryRects(float[], int, IntArray, IntArray, QueryContext)}, for items that might contain each of
+   * the count points packed into points as x, y.
+   */
+  void queryPoints(float[] points, int count, IntArray queries, IntArray handles, QueryContext context);
+
+  /**
+   * Reports every item that might intersect the ray starting at originX,originY in the direction dirX,dirY, no further
+   * than the limit maxT, to callback. The limit is a multiple of the direction vector; after each candidate it becomes
+   * whatever callback returned, and the index stops as soon as everything it has left to visit starts past the limit.
+   * Candidates should come roughly in order from the origin, so that a callback looking for the first hit can cut the
+   * search short early. Each item is reported at most once.
+   * @return the limit after the last candidate
+   */
+  float raycast(float originX, float originY, float dirX, float dirY, float maxT, RaycastCallback callback, QueryContext context);
+}
@@ -15,10 +15,13 @@
  */
 package com.dongbat.jbump;
 
+import com.dongbat.jbump.util.IntArray;
+import com.dongbat.jbump.util.IntIntMap;
+import com.dongbat.jbump.util.UniqueIntArray;
+
 import java.util.*;
 
 import static com.dongbat.jbump.Grid.*;
-import static com.dongbat.jbump.ItemInfo.weightComparator;
 import static com.dongbat.jbump.Rect.rect_getSegmentIntersectionIndices;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
@@ -29,11 +32,29 @@ import static java.lang.Math.min;
  */
 public class World<E> {
 
-  private final HashMap<Point, Cell> cellMap = new HashMap<Point, Cell>();
-  private final HashSet<Cell> nonEmptyCells = new HashSet<Cell>();
-  private float cellMinX, cellMinY, cellMaxX, cellMaxY;
-  private final Grid grid = new Grid();
-  private final RectHelper rectHelper = new RectHelper();
+  private final SpatialIndex index;
+  /**
+   * The same object as {@link #index} if it is a {@link GridIndex}, otherwise null.
+   */
+  private final GridIndex gridIndex;
+  /**
+   * The scratch space used by the query methods that don't take a {@link QueryContext}.
+   */
+  private final QueryContext defaultContext = new QueryContext();
+  /**
+   * The category items are added with if none is given.
+   */
+  public static final int DEFAULT_CATEGORY = 1;
+  /**
+   * The mask items are added with if none is given, which collides with every category. It is also the mask used by the
+   * queries that don't take one.
+   */
+  public static final int DEFAULT_MASK = -1;
+  /**
+   * The responses set with {@link #setCategoryResponse(int, int, Response)}, indexed by the bit of the moving item's
+   * category times 32 plus the bit of the other item's; null until the first one is set.
+   */
+  private Response[] categoryResponses;
   private boolean tileMode = true;
   private final float cellSize;
   
@@ -42,7 +63,49 @@ public class World<E> {
   }
   
   public World(float cellSize) {
-    this.cellSize = cellSize;
+    this(new GridIndex(cellSize));
+  }
+
+  /**
+   * Creates a World in bounded mode, for levels with known, fixed bounds. Every cell that overlaps the rectangle from
+   * {@code minX,minY} to {@code maxX,maxY} is stored in a flat array, so looking it up is a plain array read instead of
+   * a hash lookup. Items may still be placed outside the bounds; the cells they touch out there are kept in the same
+   * sparse map an unbounded World uses, so behavior is identical either way.
+   * <br>
+   * The array holds one reference per cell in the bounds, allocated up front, so pick bounds and a cellSize that keep
+   * the cell count reasonable.
+   * @param cellSize the width and height of each cell in the grid
+   * @param minX the smallest x coordinate of the bounded area
+   * @param minY the smallest y coordinate of the bounded area
+   * @param maxX the largest x coordinate of the bounded area
+   * @param maxY the largest y coordinate of the bounded area
+   */
+  public World(float cellSize, float minX, float minY, float maxX, float maxY) {
+    this(new GridIndex(cellSize, minX, minY, maxX, maxY));
+  }
+
+  /**
+   * Creates a World that uses the given {@link SpatialIndex} as its broadphase. Collision detection and response work
+   * the same with any index. The cell-specific methods, such as {@link #getCells()}, only have something to report when
+   * the index is a {@link GridIndex}; for other indexes, {@link #toCell(float, float, Point)} and
+   * {@link #toWorld(float, float, Point)} use a cellSize of 64.
+   * @param index an empty SpatialIndex that this World will own
+   */
+  public World(SpatialIndex index) {
+    this.index = index;
+    this.gridIndex = index instanceof GridIndex ? (GridIndex) index : null;
+    this.cellSize = gridIndex != null ? gridIndex.getCellSize() : 64f;
+  }
+
+  public SpatialIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Returns true if this World uses a {@link GridIndex} that was created with bounds.
+   */
+  public boolean isBounded() {
+    return gridIndex != null && gridIndex.isBounded();
   }
   
   public void setTileMode(boolean tileMode) {
@@ -53,212 +116,345 @@ public class World<E> {
     return tileMode;
   }
 
-  private void addItemToCell(Item<E> item, float cx, float cy) {
-    Point pt = new Point(cx, cy);
-    Cell cell = cellMap.get(pt);
-    if(cell == null) {
-      cell = new Cell();
-      cellMap.put(pt, cell);
-      if (cx < cellMinX) cellMinX = cx;
-      if (cy < cellMinY) cellMinY = cy;
-      if (cx > cellMaxX) cellMaxX = cx;
-      if (cy > cellMaxY) cellMaxY = cy;
-    }
-    nonEmptyCells.add(cell);
-    cell.items.add(item);
+  /**
+   * Releases memory that is no longer needed after many items have been removed, as described by
+   * {@link SpatialIndex#compact()}. For the default grid, this shrinks the cell map and every cell's item set to fit.
+   */
+  public void compact() {
+    index.compact();
   }
 
-  private boolean removeItemFromCell(Item item, float cx, float cy) {
-    Point pt = new Point(cx, cy);
-    Cell cell = cellMap.get(pt);
-    if(cell == null) {
-      return false;
+  /**
+   * Returns the cells that the segment from x1,y1 to x2,y2 touches, or none if this World doesn't use a
+   * {@link GridIndex}.
+   */
+  public ArrayList<Cell> getCellsTouchedBySegment(float x1, float y1, float x2, float y2, ArrayList<Cell> result) {
+    if (gridIndex == null) {
+      result.clear();
+      return result;
     }
-    if (!cell.items.remove(item)) {
-      return false;
+    return gridIndex.getCellsTouchedBySegment(x1, y1, x2, y2, result);
+  }
+
+  /**
+   * Returns the cells that the ray touches, or none if this World doesn't use a {@link GridIndex}.
+   */
+  public ArrayList<Cell> getCellsTouchedByRay(float originX, float originY, float dirX, float dirY, ArrayList<Cell> result) {
+    if (gridIndex == null) {
+      result.clear();
+      return result;
     }
-    if (cell.items.isEmpty()) {
-      nonEmptyCells.remove(cell);
+    return gridIndex.getCellsTouchedByRay(originX, originY, dirX, dirY, result);
+  }
+  
+  private ArrayList<ItemInfo> getInfoAboutItemsTouchedBySegment(float x1, float y1, float x2, float y2, int mask, CollisionFilter filter, ArrayList<ItemInfo> infos, QueryContext context) {
+    int count;
+    UniqueIntArray candidates = context.acquireCandidates();
+    try {
+      index.querySegment(x1, y1, x2, y2, candidates, context);
+      count = collectSegmentInfos(candidates, x1, y1, x2, y2, mask, filter, infos, context);
+    } finally {
+      context.releaseCandidates();
     }
-    return true;
+    trimInfos(infos, count, context);
+    sortByWeight(infos, context);
+    return infos;
   }
 
-  private LinkedHashSet<Item> getDictItemsInCellRect(float cl, float ct, float cw, float ch, LinkedHashSet<Item> result) {
-    result.clear();
-    Point pt = new Point(cl, ct);
-    for (float cy = ct; cy < ct + ch; cy++, pt.y++) {
-      for (float cx = cl; cx < cl + cw; cx++, pt.x++) {
-        Cell cell = cellMap.get(pt);
-        if (cell != null && !cell.items.isEmpty()) { // this is conscious of tunneling
-          result.addAll(cell.items);
+  private int collectSegmentInfos(UniqueIntArray candidates, float x1, float y1, float x2, float y2, int mask, CollisionFilter filter, ArrayList<ItemInfo> infos, QueryContext context) {
+    Point info_ti = context.ti;
+    IntPoint info_normalX = context.normalX, info_normalY = context.normalY;
+    ItemTable table = this.table;
+    int count = 0;
+    for (int i = 0, n = candidates.size; i < n; i++) {
+      int handle = candidates.items[i];
+      Item item = table.items[handle];
+      if ((table.categories[handle] & mask) != 0 && (filter == null || filter.filter(item, null) != null)) {
+        float l = table.xs[handle];
+        float t = table.ys[handle];
+        float w = table.ws[handle];
+        float h = table.hs[handle];
+        
+        if (rect_getSegmentIntersectionIndices(l, t, w, h, x1, y1, x2, y2, 0, 1, info_ti, info_normalX, info_normalY)) {
+          float ti1 = info_ti.x;
+          float ti2 = info_ti.y;
+          if ((0 < ti1 && ti1 < 1) || (0 < ti2 && ti2 < 1)) {
+            rect_getSegmentIntersectionIndices(l, t, w, h, x1, y1, x2, y2, -Float.MAX_VALUE, Float.MAX_VALUE, info_ti, info_normalX, info_normalY);
+            float tii0 = info_ti.x;
+            float tii1 = info_ti.y;
+            count = addInfo(infos, count, item, ti1, ti2, Math.min(tii0, tii1), context);
+          }
         }
       }
-      pt.x = cl;
     }
-    return result;
+    return count;
+  }
+  
+  private ArrayList<ItemInfo> getInfoAboutItemsTouchedByRay(float originX, float originY, float dirX, float dirY, float maxDistance, int mask, CollisionFilter filter, ArrayList<ItemInfo> infos, QueryContext context) {
+    // how far along the ray maxDistance is, as a multiple of dirX,dirY; a ray without a direction never gets anywhere
+    float maxT = dirX == 0 && dirY == 0 ? 0 : maxDistance / (float) Math.sqrt(dirX * dirX + dirY * dirY);
+    int count;
+    UniqueIntArray candidates = context.acquireCandidates();
+    try {
+      if (maxT < Float.POSITIVE_INFINITY && maxDistance < Float.POSITIVE_INFINITY) {
+        // only the cells up to maxDistance need to be walked
+        index.querySegment(originX, originY, originX + dirX * maxT, originY + dirY * maxT, candidates, context);
+      } else {
+        maxT = Float.MAX_VALUE;
+        index.queryRay(originX, originY, dirX, dirY, candidates, context);
+      }
+      count = collectRayInfos(candidates, originX, originY, dirX, dirY, maxT, mask, filter, infos, context);
+    } finally {
+      context.releaseCandidates();
+    }
+    trimInfos(infos, count, context);
+    sortByWeight(infos, context);
+    return infos;
   }
 
-  private final ArrayList<Cell> getCellsTouchedBySegment_visited = new ArrayList<Cell>();
-
-  public ArrayList<Cell> getCellsTouchedBySegment(float x1, float y1, float x2, float y2, final ArrayList<Cell> result) {
-    result.clear();
-    getCellsTouchedBySegment_visited.clear();
-    // use set
-    final ArrayList<Cell> visited = getCellsTouchedBySegment_visited;
-    final Point pt = new Point(x1, y1);
-    grid.grid_traverse(cellSize, x1, y1, x2, y2, new TraverseCallback() {
-      @Override
-      public boolean onTraverse(float cx, float cy, int stepX, int stepY) {
-        //stop if cell coordinates are outside of the world.
-        if (stepX == -1 && cx < cellMinX || stepX == 1 && cx > cellMaxX
-                || stepY == -1 && cy < cellMinY || stepY == 1 && cy > cellMaxY) return false;
-        pt.x = cx;
-        pt.y = cy;
-        Cell cell = cellMap.get(pt);
-        if (cell == null || visited.contains(cell)) {
-          return true;
+  private int collectRayInfos(UniqueIntArray candidates, float originX, float originY, float dirX, float dirY, float maxT, int mask, CollisionFilter filter, ArrayList<ItemInfo> infos, QueryContext context) {
+    Point info_ti = context.ti;
+    IntPoint info_normalX = context.normalX, info_normalY = context.normalY;
+    ItemTable table = this.table;
+    int count = 0;
+    for (int i = 0, n = candidates.size; i < n; i++) {
+      int handle = candidates.items[i];
+      Item item = table.items[handle];
+      if ((table.categories[handle] & mask) != 0 && (filter == null || filter.filter(item, null) != null)) {
+        float l = table.xs[handle];
+        float t = table.ys[handle];
+        float w = table.ws[handle];
+        float h = table.hs[handle];
+        
+        if (rect_getSegmentIntersectionIndices(l, t, w, h, originX, originY, originX + dirX, originY + dirY, 0, maxT, info_ti, info_normalX, info_normalY)) {
+          float ti1 = info_ti.x;
+          float ti2 = info_ti.y;
+          count = addInfo(infos, count, item, ti1, ti2, Math.min(ti1, ti2), context);
         }
-        visited.add(cell);
-        result.add(cell);
-        return true;
       }
-    });
-
-    return result;
+    }
+    return count;
   }
-  
-  public ArrayList<Cell> getCellsTouchedByRay(float originX, float originY, float dirX, float dirY, final ArrayList<Cell> result) {
-    result.clear();
-    getCellsTouchedBySegment_visited.clear();
-    // use set
-    final ArrayList<Cell> visited = getCellsTouchedBySegment_visited;
-    final Point pt = new Point(originX, originY);
-    grid.grid_traverseRay(cellSize, originX, originY, dirX, dirY, new TraverseCallback() {
-      @Override
-      public boolean onTraverse(float cx, float cy, int stepX, int stepY) {
-        //stop if cell coordinates are outside of the world.
-        if (stepX == -1 && cx < cellMinX || stepX == 1 && cx > cellMaxX
-                || stepY == -1 && cy < cellMinY || stepY == 1 && cy > cellMaxY) return false;
-        pt.x = cx;
-        pt.y = cy;
-        Cell cell = cellMap.get(pt);
-        if (cell == null || visited.contains(cell)) {
-          return true;
-        }
-        visited.add(cell);
-        result.add(cell);
-        return true;
+
+  /**
+   * Sets the info at index count of infos, reusing the one already there or a spare one from context if it can, and
+   * returns the new count.
+   */
+  private static int addInfo(ArrayList<ItemInfo> infos, int count, Item item, float ti1, float ti2, float weight, QueryContext context) {
+    if (count < infos.size()) {
+      infos.get(count).set(item, ti1, ti2, weight);
+    } else {
+      ArrayList<ItemInfo> spares = context.spareInfos;
+      if (spares.isEmpty()) {
+        infos.add(new ItemInfo(item, ti1, ti2, weight));
+      } else {
+        ItemInfo info = spares.remove(spares.size() - 1);
+        info.set(item, ti1, ti2, weight);
+        infos.add(info);
       }
-    });
+    }
+    return count + 1;
+  }
 
-    return result;
+  /**
+   * Cuts infos down to its first count entries, keeping the rest in context for later queries.
+   */
+  private static void trimInfos(ArrayList<ItemInfo> infos, int count, QueryContext context) {
+    for (int i = infos.size() - 1; i >= count; i--) {
+      ItemInfo info = infos.remove(i);
+      info.item = null;
+      context.spareInfos.add(info);
+    }
   }
-  
-  private final ArrayList<Cell> info_cells = new ArrayList<Cell>();
-  private final Point info_ti = new Point();
-  private final IntPoint info_normalX = new IntPoint();
-  private final IntPoint info_normalY = new IntPoint();
-  private final ArrayList<Item> info_visited = new ArrayList<Item>();
-  
-  private ArrayList<ItemInfo> getInfoAboutItemsTouchedBySegment(float x1, float y1, float x2, float y2, CollisionFilter filter, ArrayList<ItemInfo> infos) {
-    info_visited.clear();
-    infos.clear();
-    getCellsTouchedBySegment(x1, y1, x2, y2, info_cells);
-    
-    for (Cell cell : info_cells) {
-      for (Item item : cell.items) {
-        if (!info_visited.contains(item)) {
-          info_visited.add(item);
-          if (filter == null || filter.filter(item, null) != null) {
-            Rect rect = rects.get(item);
-            float l = rect.x;
-            float t = rect.y;
-            float w = rect.w;
-            float h = rect.h;
-            
-            if (rect_getSegmentIntersectionIndices(l, t, w, h, x1, y1, x2, y2, 0, 1, info_ti, info_normalX, info_normalY)) {
-              float ti1 = info_ti.x;
-              float ti2 = info_ti.y;
-              if ((0 < ti1 && ti1 < 1) || (0 < ti2 && ti2 < 1)) {
-                rect_getSegmentIntersectionIndices(l, t, w, h, x1, y1, x2, y2, -Float.MAX_VALUE, Float.MAX_VALUE, info_ti, info_normalX, info_normalY);
-                float tii0 = info_ti.x;
-                float tii1 = info_ti.y;
-                infos.add(new ItemInfo(item, ti1, ti2, Math.min(tii0, tii1)));
-              }
-            }
-          }
+
+  /**
+   * Sorts infos by weight the same way {@link ItemInfo#weightComparator} does, keeping the order of equal weights, but
+   * on an array of primitive keys so that it doesn't allocate. Each key holds the weight in its upper half, with its bits
+   * arranged to sort like the float, and the info's position in its lower half, so no two keys are equal.
+   */
+  private static void sortByWeight(ArrayList<ItemInfo> infos, QueryContext context) {
+    int n = infos.size();
+    if (n < 2) {
+      return;
+    }
+    if (context.infoKeys.length < n) {
+      context.infoKeys = new long[Math.max(n, context.infoKeys.length * 2)];
+      context.infoOrder = new ItemInfo[context.infoKeys.length];
+    }
+    long[] keys = context.infoKeys;
+    ItemInfo[] order = context.infoOrder;
+    for (int i = 0; i < n; i++) {
+      ItemInfo info = infos.get(i);
+      order[i] = info;
+      int bits = Float.floatToIntBits(info.weight);
+      bits ^= bits >> 31 & 0x7FFFFFFF;
+      keys[i] = (long) bits << 32 | i;
+    }
+    sortKeys(keys, 0, n - 1);
+    for (int i = 0; i < n; i++) {
+      infos.set(i, order[(int) keys[i]]);
+    }
+    Arrays.fill(order, 0, n, null);
+  }
+
+  /**
+   * Sorts handles from lo to hi inclusive, with the same quicksort as {@link #sortKeys(long[], int, int)}.
+   */
+  private static void sortHandles(int[] handles, int lo, int hi) {
+    while (hi - lo > 16) {
+      int pivot = handles[(lo + hi) >>> 1];
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (handles[i] < pivot) {
+          i++;
+        }
+        while (handles[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          int swap = handles[i];
+          handles[i++] = handles[j];
+          handles[j--] = swap;
         }
       }
+      if (j - lo < hi - i) {
+        sortHandles(handles, lo, j);
+        lo = i;
+      } else {
+        sortHandles(handles, i, hi);
+        hi = j;
+      }
+    }
+    for (int i = lo + 1; i <= hi; i++) {
+      int handle = handles[i];
+      int j = i - 1;
+      for (; j >= lo && handles[j] > handle; j--) {
+        handles[j + 1] = handles[j];
+      }
+      handles[j + 1] = handle;
     }
-    Collections.sort(infos, weightComparator);
-    return infos;
   }
-  
-  private ArrayList<ItemInfo> getInfoAboutItemsTouchedByRay(float originX, float originY, float dirX, float dirY, CollisionFilter filter, ArrayList<ItemInfo> infos) {
-    info_visited.clear();
-    infos.clear();
-    getCellsTouchedByRay(originX, originY, dirX, dirY, info_cells);
-    
-    for (Cell cell : info_cells) {
-      for (Item item : cell.items) {
-        if (!info_visited.contains(item)) {
-          info_visited.add(item);
-          if (filter == null || filter.filter(item, null) != null) {
-            Rect rect = rects.get(item);
-            float l = rect.x;
-            float t = rect.y;
-            float w = rect.w;
-            float h = rect.h;
-            
-            if (rect_getSegmentIntersectionIndices(l, t, w, h, originX, originY, originX + dirX, originY + dirY, 0, Float.MAX_VALUE, info_ti, info_normalX, info_normalY)) {
-              float ti1 = info_ti.x;
-              float ti2 = info_ti.y;
-              infos.add(new ItemInfo(item, ti1, ti2, Math.min(ti1, ti2)));
-            }
-          }
+
+  /**
+   * Sorts keys from lo to hi inclusive. Arrays.sort may allocate a buffer to merge runs of already sorted keys, which
+   * hits are likely to have since the index finds them roughly in order along the line; this quicksort never does.
+   */
+  static void sortKeys(long[] keys, int lo, int hi) {
+    while (hi - lo > 16) {
+      long pivot = keys[(lo + hi) >>> 1];
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i++;
+        }
+        while (keys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          long swap = keys[i];
+          keys[i++] = keys[j];
+          keys[j--] = swap;
         }
       }
+      // recurse into the smaller side, so the stack stays shallow
+      if (j - lo < hi - i) {
+        sortKeys(keys, lo, j);
+        lo = i;
+      } else {
+        sortKeys(keys, i, hi);
+        hi = j;
+      }
+    }
+    for (int i = lo + 1; i <= hi; i++) {
+      long key = keys[i];
+      int j = i - 1;
+      for (; j >= lo && keys[j] > key; j--) {
+        keys[j + 1] = keys[j];
+      }
+      keys[j + 1] = key;
     }
-    Collections.sort(infos, weightComparator);
-    return infos;
   }
 
   public Collisions project(Item item, float x, float y, float w, float h, float goalX, float goalY, Collisions collisions) {
     return project(item, x, y, w, h, goalX, goalY, CollisionFilter.defaultFilter, collisions);
   }
 
-  private final ArrayList<Item> project_visited = new ArrayList<Item>();
-  private final Rect project_c = new Rect();
-  private final LinkedHashSet<Item> project_dictItemsInCellRect = new LinkedHashSet<Item>();
-
+  /**
+   * Finds the collisions of item as it moves from x,y to goalX,goalY, without moving it. The candidates from the index
+   * are tested in the order of their handles, which is the order their items were added in until items are removed; a
+   * later item then takes over the handle of a removed one. In tile mode the collisions are then sorted by when they
+   * happen along the move, the nearest first among those that happen at once, so handle order only decides between
+   * collisions that tie on both. Otherwise they stay in handle order, which is the order that
+   * {@link #check(Item, float, float, CollisionFilter)} resolves them in, even if a later one is nearer.
+   * @param collisions cleared, then filled with the collisions found
+   */
   public Collisions project(Item item, float x, float y, float w, float h, float goalX, float goalY, CollisionFilter filter, Collisions collisions) {
+    // a response projects with the filter check gave it, which knows the context the move runs in
+    QueryContext context = filter instanceof VisitedFilter ? ((VisitedFilter) filter).context : defaultContext;
+    return project(item, x, y, w, h, goalX, goalY, filter, collisions, context);
+  }
+
+  /**
+   * The same as {@link #project(Item, float, float, float, float, float, float, CollisionFilter, Collisions)}, working
+   * in the scratch space of context instead of this World's.
+   */
+  public Collisions project(Item item, float x, float y, float w, float h, float goalX, float goalY, CollisionFilter filter, Collisions collisions, QueryContext context) {
     collisions.clear();
-    ArrayList<Item> visited = project_visited;
-    visited.clear();
-    if (item != null) {
-      visited.add(item);
+    int self = item == null ? -1 : table.handleOf(item);
+
+    UniqueIntArray candidates = context.acquireCandidates();
+    try {
+      index.querySweptRect(x, y, w, h, goalX, goalY, candidates, context);
+      QueryContext.MoveOverlay overlay = context.overlay;
+      if (overlay != null) {
+        overlay.addCandidates(Math.min(x, goalX), Math.min(y, goalY), Math.max(x, goalX) + w, Math.max(y, goalY) + h, candidates);
+      }
+      // in handle order, so that which of two equally close collisions comes first doesn't depend on the index
+      sortHandles(candidates.items, 0, candidates.size - 1);
+      projectCandidates(item, self, x, y, w, h, goalX, goalY, filter, candidates, collisions, context);
+    } finally {
+      context.releaseCandidates();
     }
-    
-    /*This could probably be done with less cells using a polygon raster over the cells instead of a
-    bounding rect of the whole movement. Conditional to building a queryPolygon method*/
-    float tl = min(goalX, x);
-    float tt = min(goalY, y);
-    float tr = max(goalX + w, x + w);
-    float tb = max(goalY + h, y + h);
-
-    float tw = tr - tl;
-    float th = tb - tt;
-
-    grid.grid_toCellRect(cellSize, tl, tt, tw, th, project_c);
-    float cl = project_c.x, ct = project_c.y, cw = project_c.w, ch = project_c.h;
-    LinkedHashSet<Item> dictItemsInCellRect = getDictItemsInCellRect(cl, ct, cw, ch, project_dictItemsInCellRect);
-    for (Item other : dictItemsInCellRect) {
-      if (!visited.contains(other)) {
-        visited.add(other);
-        Response response = filter.filter(item, other);
+    if (tileMode) {
+      collisions.sort();
+    }
+    return collisions;
+  }
+
+  private void projectCandidates(Item item, int self, float x, float y, float w, float h, float goalX, float goalY, CollisionFilter filter, UniqueIntArray candidates, Collisions collisions, QueryContext context) {
+    ItemTable table = this.table;
+    RectHelper rectHelper = context.rectHelper;
+    QueryContext.MoveOverlay overlay = context.overlay;
+    Point position = context.overlayPosition;
+    ArrayList<Item> visited = null;
+    if (filter instanceof VisitedFilter) {
+      // checked here, so that a response from the category table can't bring back an item the move already hit
+      visited = ((VisitedFilter) filter).visited;
+      filter = ((VisitedFilter) filter).filter;
+    }
+    if (filter == null) {
+      filter = CollisionFilter.defaultFilter;
+    }
+    // an item that isn't in this World has no category, so only the filter decides
+    int category = self >= 0 ? table.categories[self] : -1, mask = self >= 0 ? table.masks[self] : -1;
+    Response[] responses = self >= 0 ? categoryResponses : null;
+    int row = Integer.numberOfTrailingZeros(category) << 5;
+    int[] categories = table.categories, masks = table.masks;
+    for (int i = 0, n = candidates.size; i < n; i++) {
+      int handle = candidates.items[i];
+      Item other = table.items[handle];
+      if (handle != self && other != null && (category & masks[handle]) != 0 && (categories[handle] & mask) != 0
+          && (visited == null || !visited.contains(other))) {
+        Response response = responses == null ? null : responses[row | Integer.numberOfTrailingZeros(categories[handle])];
+        if (response == null) {
+          response = filter.filter(item, other);
+        }
         if (response != null) {
-          Rect o = getRect(other);
-          float ox = o.x, oy = o.y, ow = o.w, oh = o.h;
+          float ox = table.xs[handle], oy = table.ys[handle], ow = table.ws[handle], oh = table.hs[handle];
+          if (overlay != null && overlay.getPosition(handle, position)) {
+            ox = position.x;
+            oy = position.y;
+          }
           Collision col = rectHelper.rect_detectCollision(x, y, w, h, ox, oy, ow, oh, goalX, goalY);
 
           if (col != null) {
@@ -267,40 +463,141 @@ public class World<E> {
         }
       }
     }
-    if (tileMode) {
-      collisions.sort();
-    }
-    return collisions;
   }
 
-  private final HashMap<Item, Rect> rects = new HashMap<Item, Rect>();
+  final ItemTable table = new ItemTable();
+  private Set<Item> items;
 
+  /**
+   * Returns a new Rect with the rectangle of item, or null if it isn't in this World. Changing the returned Rect
+   * doesn't move the item. Code that calls this often, like once per item per frame, should use
+   * {@link #getRect(Item, Rect)} with a Rect of its own, which doesn't allocate.
+   */
   public Rect getRect(Item item) {
-    return rects.get(item);
+    int handle = table.handleOf(item);
+    if (handle < 0) {
+      return null;
+    }
+    return new Rect(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle]);
   }
-  
+
+  /**
+   * Sets result to the rectangle of item and returns it, or returns null if item isn't in this World.
+   */
+  public Rect getRect(Item item, Rect result) {
+    int handle = table.handleOf(item);
+    if (handle < 0) {
+      return null;
+    }
+    result.set(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle]);
+    return result;
+  }
+
+  /**
+   * Returns the handle of the given item, or -1 if it isn't in this World.
+   */
+  int handleOf(Item item) {
+    return table.handleOf(item);
+  }
+
+  /**
+   * Returns the Item with the given handle, as stored by a {@link SpatialIndex} or in {@link Cell#items}, or null if no
+   * item has that handle.
+   */
+  public Item getItem(int handle) {
+    return handle >= 0 && handle < table.limit ? table.items[handle] : null;
+  }
+
+  /**
+   * Returns a read-only view of the items in this World, which reflects later changes.
+   */
   public Set<Item> getItems() {
-    return rects.keySet();
+    if (items == null) {
+      items = new AbstractSet<Item>() {
+        @Override
+        public Iterator<Item> iterator() {
+          return new Iterator<Item>() {
+            private int next = advance(0);
+
+            private int advance(int handle) {
+              while (handle < table.limit && table.items[handle] == null) {
+                handle++;
+              }
+              return handle;
+            }
+
+            @Override
+            public boolean hasNext() {
+              return next < table.limit;
+            }
+
+            @Override
+            public Item next() {
+              if (next >= table.limit) {
+                throw new NoSuchElementException();
+              }
+              Item item = table.items[next];
+              next = advance(next + 1);
+              return item;
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException("Use World.remove(Item) to remove items.");
+            }
+          };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return o instanceof Item && table.handleOf((Item) o) >= 0;
+        }
+
+        @Override
+        public int size() {
+          return table.size();
+        }
+      };
+    }
+    return items;
   }
-  
+
+  /**
+   * Returns a new list with a copy of the rectangle of every item in this World, in the same order as
+   * {@link #getItems()}.
+   */
   public Collection<Rect> getRects() {
-    return rects.values();
+    ItemTable table = this.table;
+    ArrayList<Rect> rects = new ArrayList<Rect>(table.size());
+    for (int handle = 0; handle < table.limit; handle++) {
+      if (table.items[handle] != null) {
+        rects.add(new Rect(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle]));
+      }
+    }
+    return rects;
   }
 
+  /**
+   * Returns the cells that currently hold items, as described by {@link GridIndex#getCells()}, or an empty collection
+   * if this World doesn't use a {@link GridIndex}.
+   */
   public Collection<Cell> getCells() {
-    return cellMap.values(); 
+    if (gridIndex == null) {
+      return Collections.emptyList();
+    }
+    return gridIndex.getCells();
   }
   
   public int countCells() { 
-    return cellMap.size();
+    return gridIndex == null ? 0 : gridIndex.countCells();
   }
 
   public boolean hasItem(Item item) {
-    return rects.containsKey(item);
+    return table.handleOf(item) >= 0;
   }
 
   public int countItems() {
-    return rects.keySet().size();
+    return table.size();
   }
 
   public Point toWorld(float cx, float cy, Point result) {
@@ -313,122 +610,185 @@ public class World<E> {
     return result;
   }
 
-  private final Rect add_c = new Rect();
-
   public Item<E> add(Item<E> item, float x, float y, float w, float h) {
-    if (rects.containsKey(item)) {
+    return add(item, x, y, w, h, DEFAULT_CATEGORY, DEFAULT_MASK);
+  }
+
+  /**
+   * Adds an item with the given collision category and mask; see {@link #setCategory(Item, int, int)}.
+   */
+  public Item<E> add(Item<E> item, float x, float y, float w, float h, int category, int mask) {
+    if (table.handleOf(item) >= 0) {
       return item;
     }
-    rects.put(item, new Rect(x, y, w, h));
-    grid.grid_toCellRect(cellSize, x, y, w, h, add_c);
-    float cl = add_c.x, ct = add_c.y, cw = add_c.w, ch = add_c.h;
-    for (float cy = ct; cy < ct + ch; cy++) {
-      for (float cx = cl; cx < cl + cw; cx++) {
-        addItemToCell(item, cx, cy);
-      }
-    }
+    int handle = table.add(item, x, y, w, h, category, mask);
+    index.add(handle, x, y, w, h);
     return item;
   }
 
-  private final Rect remove_c = new Rect();
+  /**
+   * Sets the collision category and mask of item, if it is in this World. Two items only collide in
+   * {@link #project(Item, float, float, float, float, float, float, CollisionFilter, Collisions)}, and so in
+   * {@link #check(Item, float, float, CollisionFilter)} and {@link #move(Item, float, float, CollisionFilter)}, if each
+   * one's category shares a bit with the other's mask. Pairs that fail this are skipped with a bitwise and, before any
+   * {@link CollisionFilter} is called. Items are added with {@link #DEFAULT_CATEGORY} and {@link #DEFAULT_MASK}, so
+   * everything collides until categories are set.
+   * @param category the bits of the categories item belongs to; usually a single bit, such as 1 &lt;&lt; layer
+   * @param mask the categories item collides with
+   * @see #setCategoryResponse(int, int, Response)
+   */
+  public void setCategory(Item item, int category, int mask) {
+    int handle = table.handleOf(item);
+    if (handle >= 0) {
+      table.categories[handle] = category;
+      table.masks[handle] = mask;
+    }
+  }
 
-  public void remove(Item item) {
-    Rect rect = getRect(item);
-    float x = rect.x, y = rect.y, w = rect.w, h = rect.h;
+  /**
+   * Returns the collision category of item, or 0 if it isn't in this World.
+   */
+  public int getCategory(Item item) {
+    int handle = table.handleOf(item);
+    return handle >= 0 ? table.categories[handle] : 0;
+  }
 
-    rects.remove(item);
-    grid.grid_toCellRect(cellSize, x, y, w, h, remove_c);
-    float cl = remove_c.x, ct = remove_c.y, cw = remove_c.w, ch = remove_c.h;
+  /**
+   * Returns the collision mask of item, or 0 if it isn't in this World.
+   */
+  public int getMask(Item item) {
+    int handle = table.handleOf(item);
+    return handle >= 0 ? table.masks[handle] : 0;
+  }
 
-    for (float cy = ct; cy < ct + ch; cy++) {
-      for (float cx = cl; cx < cl + cw; cx++) {
-        removeItemFromCell(item, cx, cy);
+  /**
+   * Makes an item of category that moves into an item of otherCategory collide with response, without calling the
+   * {@link CollisionFilter}, as long as their categories and masks let them collide at all. Pairs without a response
+   * here are passed to the filter as usual; pass null to remove one. An item that belongs to several categories is
+   * looked up by its lowest category bit.
+   * @param category a single bit, the category of the moving item
+   * @param otherCategory a single bit, the category of the item it runs into
+   */
+  public void setCategoryResponse(int category, int otherCategory, Response response) {
+    if (Integer.bitCount(category) != 1 || Integer.bitCount(otherCategory) != 1) {
+      throw new IllegalArgumentException("categories must be single bits: " + category + ", " + otherCategory);
+    }
+    if (categoryResponses == null) {
+      if (response == null) {
+        return;
       }
+      categoryResponses = new Response[32 * 32];
+    }
+    categoryResponses[Integer.numberOfTrailingZeros(category) << 5 | Integer.numberOfTrailingZeros(otherCategory)] = response;
+  }
+
+  /**
+   * Returns the response set with {@link #setCategoryResponse(int, int, Response)} for an item of category moving into
+   * one of otherCategory, or null if the filter decides.
+   */
+  public Response getCategoryResponse(int category, int otherCategory) {
+    if (categoryResponses == null || category == 0 || otherCategory == 0) {
+      return null;
+    }
+    return categoryResponses[Integer.numberOfTrailingZeros(category) << 5 | Integer.numberOfTrailingZeros(otherCategory)];
+  }
+
+  public void remove(Item item) {
+    int handle = table.handleOf(item);
+    if (handle < 0) {
+      return;
     }
+    if (item instanceof IdItem) {
+      idHandles.remove(((IdItem) item).id, -1);
+    }
+    removeHandle(handle);
+  }
+
+  private void removeHandle(int handle) {
+    ItemTable table = this.table;
+    index.remove(handle, table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle]);
+    table.remove(handle);
   }
   
   public void reset() {
-    rects.clear();
-    cellMap.clear();
-    nonEmptyCells.clear();
+    table.clear();
+    idHandles.clear();
+    index.clear();
   }
 
   public void update(Item item, float x2, float y2) {
-    Rect rect = getRect(item);
-    float x = rect.x, y = rect.y, w = rect.w, h = rect.h;
-    update(item, x2, y2, w, h);
+    int handle = table.handleOf(item);
+    updateHandle(handle, x2, y2, table.ws[handle], table.hs[handle]);
   }
 
-  private final Rect update_c1 = new Rect();
-  private final Rect update_c2 = new Rect();
-
   public void update(Item item, float x2, float y2, float w2, float h2) {
-    Rect rect = getRect(item);
-    float x1 = rect.x, y1 = rect.y, w1 = rect.w, h1 = rect.h;
-    if (x1 != x2 || y1 != y2 || w1 != w2 || h1 != h2) {
-
-      Rect c1 = grid.grid_toCellRect(cellSize, x1, y1, w1, h1, update_c1);
-      Rect c2 = grid.grid_toCellRect(cellSize, x2, y2, w2, h2, update_c2);
+    updateHandle(table.handleOf(item), x2, y2, w2, h2);
+  }
 
-      float cl1 = c1.x, ct1 = c1.y, cw1 = c1.w, ch1 = c1.h;
-      float cl2 = c2.x, ct2 = c2.y, cw2 = c2.w, ch2 = c2.h;
+  private void updateHandle(int handle, float x2, float y2, float w2, float h2) {
+    ItemTable table = this.table;
+    float x1 = table.xs[handle], y1 = table.ys[handle], w1 = table.ws[handle], h1 = table.hs[handle];
+    if (x1 != x2 || y1 != y2 || w1 != w2 || h1 != h2) {
+      index.update(handle, x1, y1, w1, h1, x2, y2, w2, h2);
+      table.set(handle, x2, y2, w2, h2);
+    }
+  }
 
-      if (cl1 != cl2 || ct1 != ct2 || cw1 != cw2 || ch1 != ch2) {
-        float cr1 = cl1 + cw1 - 1, cb1 = ct1 + ch1 - 1;
-        float cr2 = cl2 + cw2 - 1, cb2 = ct2 + ch2 - 1;
-        boolean cyOut;
+  /**
+   * The filter that {@link #check(Item, float, float, CollisionFilter)} passes on to each {@link Response}, which skips
+   * the items the move has already collided with before asking the user's filter. Each {@link QueryContext} has one.
+   */
+  static final class VisitedFilter implements CollisionFilter {
+    final ArrayList<Item> visited = new ArrayList<Item>();
+    final QueryContext context;
+    CollisionFilter filter;
 
-        for (float cy = ct1; cy <= cb1; cy++) {
-          cyOut = cy < ct2 || cy > cb2;
-          for (float cx = cl1; cx <= cr1; cx++) {
-            if (cyOut || cx < cl2 || cx > cr2) {
-              removeItemFromCell(item, cx, cy);
-            }
-          }
-        }
+    VisitedFilter(QueryContext context) {
+      this.context = context;
+    }
 
-        for (float cy = ct2; cy <= cb2; cy++) {
-          cyOut = cy < ct1 || cy > cb1;
-          for (float cx = cl2; cx <= cr2; cx++) {
-            if (cyOut || cx < cl1 || cx > cr1) {
-              addItemToCell(item, cx, cy);
-            }
-          }
-        }
+    @Override
+    public Response filter(Item item, Item other) {
+      if (visited.contains(other)) {
+        return null;
+      }
+      if (filter == null) {
+        return defaultFilter.filter(item, other);
       }
-      rect.set(x2, y2, w2, h2);
+      return filter.filter(item, other);
     }
   }
 
-  private final ArrayList<Item> check_visited = new ArrayList<Item>();
-  private final Collisions check_cols = new Collisions();
-  private final Collisions check_projectedCols = new Collisions();
-  private final Response.Result check_result = new Response.Result();
+  public Response.Result check(Item item, float goalX, float goalY, CollisionFilter filter) {
+    return checkHandle(table.handleOf(item), goalX, goalY, filter);
+  }
+
+  private Response.Result checkHandle(int handle, float goalX, float goalY, CollisionFilter filter) {
+    QueryContext context = defaultContext;
+    Collisions cols = context.checkCols;
+    cols.clear();
+    Response.Result result = resolve(handle, goalX, goalY, filter, cols, context);
+    // hand the collisions to the result rather than copying them over; its old ones are the scratch space of the next check
+    context.checkCols = result.projectedCollisions;
+    result.projectedCollisions = cols;
+    return result;
+  }
 
-  public Response.Result check(Item item, float goalX, float goalY, final CollisionFilter filter) {
-    final ArrayList<Item> visited = check_visited;
+  /**
+   * Does the work of check for the item with the given handle in the scratch space of context, adding each collision to
+   * the end of cols. Only the goal of the returned Result is set.
+   */
+  Response.Result resolve(int handle, float goalX, float goalY, CollisionFilter filter, Collisions cols, QueryContext context) {
+    Item item = table.items[handle];
+    VisitedFilter visitedFilter = context.visitedFilter;
+    ArrayList<Item> visited = visitedFilter.visited;
     visited.clear();
     visited.add(item);
+    visitedFilter.filter = filter;
 
-    CollisionFilter visitedFilter = new CollisionFilter() {
-      @Override
-      public Response filter(Item item, Item other) {
-        if (visited.contains(other)) {
-          return null;
-        }
-        if (filter == null) {
-          return defaultFilter.filter(item, other);
-        }
-        return filter.filter(item, other);
-      }
-    };
-
-    Rect rect = getRect(item);
-    float x = rect.x, y = rect.y, w = rect.w, h = rect.h;
-    Collisions cols = check_cols;
-    cols.clear();
-    Collisions projectedCols = project(item, x, y, w, h, goalX, goalY, filter, check_projectedCols);
-    Response.Result result = check_result;
+    float x = table.xs[handle], y = table.ys[handle], w = table.ws[handle], h = table.hs[handle];
+    Collisions projectedCols = project(item, x, y, w, h, goalX, goalY, filter, context.projectedCols, context);
+    Response.Result result = context.checkResult;
     while (projectedCols != null && !projectedCols.isEmpty()) {
       Collision col = projectedCols.get(0);
       cols.add(col.overlaps, col.ti, col.move.x, col.move.y, col.normal.x, col.normal.y, col.touch.x, col.touch.y, col.itemRect.x, col.itemRect.y, col.itemRect.w, col.itemRect.h, col.otherRect.x, col.otherRect.y, col.otherRect.w, col.otherRect.h, col.item, col.other, col.type);
@@ -443,50 +803,314 @@ public class World<E> {
     }
 
     result.set(goalX, goalY);
-    result.projectedCollisions.clear();
-    for (int i = 0; i < cols.size(); i++) {
-      result.projectedCollisions.add(cols.get(i));
-    }
+    visitedFilter.filter = null;
+    visited.clear();
     return result;
   }
 
   public Response.Result move(Item item, float goalX, float goalY, CollisionFilter filter) {
-    Response.Result result = check(item, goalX, goalY, filter);
-    update(item, result.goalX, result.goalY);
+    int handle = table.handleOf(item);
+    Response.Result result = checkHandle(handle, goalX, goalY, filter);
+    updateHandle(handle, result.goalX, result.goalY, table.ws[handle], table.hs[handle]);
     return result;
   }
-  
-  public float getCellSize() {
-    return cellSize;
-  }
-  
-  private final Rect query_c = new Rect();
-  private final LinkedHashSet<Item> query_dictItemsInCellRect = new LinkedHashSet<Item>();
-  
+
   /**
-   * A collision check of items that intersect the given rectangle.
-   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
-   *               "other" is null.
-   * @param items An empty list that will be filled with the {@link Item} instances that collide with the rectangle.
+   * Moves each of the first count items in turn, in the order they are in the array, as if
+   * {@link #move(Item, float, float, CollisionFilter)} was called for each of them; later items collide with the earlier
+   * ones where they ended up. The order is the only thing that decides the outcome, so the same arrays always give the
+   * same result. Where each item ended up and the collisions of each move are written to result instead of a shared
+   * {@link Response.Result}, so nothing has to be copied out between moves.
+   * @param goalXs the goal of items[i] is goalXs[i], goalYs[i]
+   * @return result
+   * @throws IllegalArgumentException if one of the items isn't in this World; the items before it have been moved
    */
-  public ArrayList<Item> queryRect(float x, float y, float w, float h, CollisionFilter filter, ArrayList<Item> items) {
-    items.clear();
-    grid.grid_toCellRect(cellSize, x, y, w, h, query_c);
-    float cl = query_c.x, ct = query_c.y, cw = query_c.w, ch = query_c.h;
-    LinkedHashSet<Item> dictItemsInCellRect = getDictItemsInCellRect(cl, ct, cw, ch, query_dictItemsInCellRect);
-    
-    for (Item item : dictItemsInCellRect) {
-      Rect rect = rects.get(item);
-      if ((filter == null || filter.filter(item, null) != null) && rect.rect_isIntersecting(x, y, w, h, rect.x, rect.y, rect.w,rect.h)) {
-        items.add(item);
+  public MoveResult moveAll(Item[] items, float[] goalXs, float[] goalYs, int count, CollisionFilter filter, MoveResult result) {
+    result.begin(count);
+    for (int i = 0; i < count; i++) {
+      int handle = table.handleOf(items[i]);
+      if (handle < 0) {
+        throw new IllegalArgumentException("Item " + items[i] + " isn't in this World");
       }
+      moveHandle(handle, goalXs[i], goalYs[i], filter, result, i);
     }
-    
-    return items;
+    return result;
   }
-  
-  private final Point query_point = new Point();
-  
+
+  /**
+   * Moves the item with the given handle, writing the outcome to the index-th entry of result.
+   */
+  private void moveHandle(int handle, float goalX, float goalY, CollisionFilter filter, MoveResult result, int index) {
+    Collisions cols = result.collisions;
+    Response.Result moved = resolve(handle, goalX, goalY, filter, cols, defaultContext);
+    updateHandle(handle, moved.goalX, moved.goalY, table.ws[handle], table.hs[handle]);
+    result.xs[index] = moved.goalX;
+    result.ys[index] = moved.goalY;
+    result.offsets[index + 1] = cols.size();
+  }
+
+  /**
+   * The Item a World creates for an item added by id, so the id can be read back without a lookup.
+   */
+  private static final class IdItem extends Item<Object> {
+    final int id;
+
+    IdItem(int id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * Lets an {@link IdCollisionFilter} be used where the Item-based code expects a {@link CollisionFilter}. Candidates
+   * that weren't added by id are rejected, since they have no id to report. The filter may run another id-based call,
+   * so each level of nesting has an adapter of its own, with a list for the Items its query finds.
+   */
+  static final class IdFilterAdapter implements CollisionFilter {
+    IdCollisionFilter filter;
+    final ArrayList<Item> items = new ArrayList<Item>();
+
+    @Override
+    public Response filter(Item item, Item other) {
+      if (!(item instanceof IdItem)) {
+        return null;
+      }
+      return filter.filter(((IdItem) item).id, other instanceof IdItem ? ((IdItem) other).id : IdCollisionFilter.NO_ID);
+    }
+  }
+
+  private final IntIntMap idHandles = new IntIntMap();
+
+  /**
+   * Returns the adapter for filter at the next level of nesting; every call must be paired with
+   * {@link #releaseIdFilter(IdFilterAdapter)}.
+   */
+  private IdFilterAdapter acquireIdFilter(IdCollisionFilter filter) {
+    IdFilterAdapter adapter = defaultContext.idFilters.acquire();
+    adapter.filter = filter;
+    return adapter;
+  }
+
+  private void releaseIdFilter(IdFilterAdapter adapter) {
+    adapter.filter = null;
+    adapter.items.clear();
+    defaultContext.idFilters.release();
+  }
+
+  /**
+   * Returns the adapter as the filter of a query, or null to accept every candidate if it has no filter.
+   */
+  private static CollisionFilter queryFilter(IdFilterAdapter adapter) {
+    return adapter.filter == null ? null : adapter;
+  }
+
+  private static IntArray toIds(ArrayList<Item> items, IntArray ids) {
+    ids.clear();
+    for (int i = 0, n = items.size(); i < n; i++) {
+      Item item = items.get(i);
+      if (item instanceof IdItem) {
+        ids.add(((IdItem) item).id);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Adds an item identified by a primitive int instead of an {@link Item}, such as an entity id from an ECS framework.
+   * Items added by id can be used with the other id-based methods without any map from ids to Items in user code, and
+   * they collide with Items added the usual way. If an item with this id is already in this World, nothing happens.
+   * @param id any int &gt;= 0
+   */
+  public void add(int id, float x, float y, float w, float h) {
+    add(id, x, y, w, h, DEFAULT_CATEGORY, DEFAULT_MASK);
+  }
+
+  /**
+   * Adds an item by id with the given collision category and mask; see {@link #setCategory(Item, int, int)}.
+   */
+  public void add(int id, float x, float y, float w, float h, int category, int mask) {
+    if (id < 0) {
+      throw new IllegalArgumentException("id must be >= 0: " + id);
+    }
+    if (idHandles.containsKey(id)) {
+      return;
+    }
+    int handle = table.add(new IdItem(id), x, y, w, h, category, mask);
+    idHandles.put(id, handle);
+    index.add(handle, x, y, w, h);
+  }
+
+  public void remove(int id) {
+    int handle = idHandles.remove(id, -1);
+    if (handle >= 0) {
+      removeHandle(handle);
+    }
+  }
+
+  /**
+   * The same as {@link #setCategory(Item, int, int)}, for an item added by id.
+   */
+  public void setCategory(int id, int category, int mask) {
+    int handle = idHandles.get(id, -1);
+    if (handle >= 0) {
+      table.categories[handle] = category;
+      table.masks[handle] = mask;
+    }
+  }
+
+  public boolean hasId(int id) {
+    return idHandles.containsKey(id);
+  }
+
+  /**
+   * Returns the id item was added with, or {@link IdCollisionFilter#NO_ID} if it was added as an Item. This is how to
+   * read the ids of the items in a {@link Collision} after {@link #move(int, float, float, IdCollisionFilter)}.
+   */
+  public int getId(Item item) {
+    return item instanceof IdItem ? ((IdItem) item).id : IdCollisionFilter.NO_ID;
+  }
+
+  /**
+   * Sets result to the rectangle of the item with the given id and returns it, or returns null if there is no such item.
+   */
+  public Rect getRect(int id, Rect result) {
+    int handle = idHandles.get(id, -1);
+    if (handle < 0) {
+      return null;
+    }
+    result.set(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle]);
+    return result;
+  }
+
+  /**
+   * Returns the handle of the item with the given id.
+   * @throws IllegalArgumentException if there is no such item
+   */
+  private int idHandle(int id) {
+    int handle = idHandles.get(id, -1);
+    if (handle < 0) {
+      throw new IllegalArgumentException("No item with id " + id + " in this World");
+    }
+    return handle;
+  }
+
+  /**
+   * @throws IllegalArgumentException if there is no item with this id
+   */
+  public void update(int id, float x2, float y2) {
+    int handle = idHandle(id);
+    updateHandle(handle, x2, y2, table.ws[handle], table.hs[handle]);
+  }
+
+  /**
+   * @throws IllegalArgumentException if there is no item with this id
+   */
+  public void update(int id, float x2, float y2, float w2, float h2) {
+    updateHandle(idHandle(id), x2, y2, w2, h2);
+  }
+
+  /**
+   * The same as {@link #check(Item, float, float, CollisionFilter)}, for an item added by id. The Items in the returned
+   * collisions can be turned back into ids with {@link #getId(Item)}.
+   * @throws IllegalArgumentException if there is no item with this id
+   */
+  public Response.Result check(int id, float goalX, float goalY, IdCollisionFilter filter) {
+    int handle = idHandle(id);
+    IdFilterAdapter adapter = acquireIdFilter(filter == null ? IdCollisionFilter.defaultFilter : filter);
+    try {
+      return checkHandle(handle, goalX, goalY, adapter);
+    } finally {
+      releaseIdFilter(adapter);
+    }
+  }
+
+  /**
+   * The same as {@link #move(Item, float, float, CollisionFilter)}, for an item added by id. The Items in the returned
+   * collisions can be turned back into ids with {@link #getId(Item)}.
+   * @throws IllegalArgumentException if there is no item with this id
+   */
+  public Response.Result move(int id, float goalX, float goalY, IdCollisionFilter filter) {
+    int handle = idHandle(id);
+    IdFilterAdapter adapter = acquireIdFilter(filter == null ? IdCollisionFilter.defaultFilter : filter);
+    try {
+      Response.Result result = checkHandle(handle, goalX, goalY, adapter);
+      updateHandle(handle, result.goalX, result.goalY, table.ws[handle], table.hs[handle]);
+      return result;
+    } finally {
+      releaseIdFilter(adapter);
+    }
+  }
+
+  /**
+   * The same as {@link #moveAll(Item[], float[], float[], int, CollisionFilter, MoveResult)}, for items added by id.
+   * @throws IllegalArgumentException if one of the ids isn't in this World; the items before it have been moved
+   */
+  public MoveResult moveAll(int[] ids, float[] goalXs, float[] goalYs, int count, IdCollisionFilter filter, MoveResult result) {
+    IdFilterAdapter adapter = acquireIdFilter(filter == null ? IdCollisionFilter.defaultFilter : filter);
+    try {
+      result.begin(count);
+      for (int i = 0; i < count; i++) {
+        moveHandle(idHandle(ids[i]), goalXs[i], goalYs[i], adapter, result, i);
+      }
+      return result;
+    } finally {
+      releaseIdFilter(adapter);
+    }
+  }
+  
+  public float getCellSize() {
+    return cellSize;
+  }
+  
+  /**
+   * A collision check of items that intersect the given rectangle.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null.
+   * @param items An empty list that will be filled with the {@link Item} instances that collide with the rectangle.
+   */
+  public ArrayList<Item> queryRect(float x, float y, float w, float h, CollisionFilter filter, ArrayList<Item> items) {
+    return queryRect(x, y, w, h, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRect(float, float, float, float, CollisionFilter, ArrayList)}, working in the scratch
+   * space of context instead of this World's.
+   */
+  public ArrayList<Item> queryRect(float x, float y, float w, float h, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
+    return queryRect(x, y, w, h, DEFAULT_MASK, filter, items, context);
+  }
+
+  /**
+   * The same as {@link #queryRect(float, float, float, float, CollisionFilter, ArrayList)}, for only the items whose
+   * category shares a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public ArrayList<Item> queryRect(float x, float y, float w, float h, int mask, CollisionFilter filter, ArrayList<Item> items) {
+    return queryRect(x, y, w, h, mask, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRect(float, float, float, float, int, CollisionFilter, ArrayList)}, working in the scratch
+   * space of context instead of this World's.
+   */
+  public ArrayList<Item> queryRect(float x, float y, float w, float h, int mask, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
+    items.clear();
+    UniqueIntArray candidates = context.acquireCandidates();
+    try {
+      index.queryRect(x, y, w, h, candidates, context);
+      ItemTable table = this.table;
+      for (int i = 0, n = candidates.size; i < n; i++) {
+        int handle = candidates.items[i];
+        Item item = table.items[handle];
+        if ((table.categories[handle] & mask) != 0 && (filter == null || filter.filter(item, null) != null) && Rect.rect_isIntersecting(x, y, w, h, table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle])) {
+          items.add(item);
+        }
+      }
+    } finally {
+      context.releaseCandidates();
+    }
+    return items;
+  }
+  
   /**
    * A collision check of items that intersect the given point.
    * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
@@ -494,17 +1118,45 @@ public class World<E> {
    * @param items An empty list that will be filled with the {@link Item} instances that collide with the point.
    */
   public ArrayList<Item> queryPoint(float x, float y, CollisionFilter filter, ArrayList<Item> items) {
+    return queryPoint(x, y, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryPoint(float, float, CollisionFilter, ArrayList)}, working in the scratch space of context
+   * instead of this World's.
+   */
+  public ArrayList<Item> queryPoint(float x, float y, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
+    return queryPoint(x, y, DEFAULT_MASK, filter, items, context);
+  }
+
+  /**
+   * The same as {@link #queryPoint(float, float, CollisionFilter, ArrayList)}, for only the items whose category shares
+   * a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public ArrayList<Item> queryPoint(float x, float y, int mask, CollisionFilter filter, ArrayList<Item> items) {
+    return queryPoint(x, y, mask, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryPoint(float, float, int, CollisionFilter, ArrayList)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public ArrayList<Item> queryPoint(float x, float y, int mask, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
     items.clear();
-    toCell(x, y, query_point);
-    float cx = query_point.x;
-    float cy = query_point.y;
-    LinkedHashSet<Item> dictItemsInCellRect = getDictItemsInCellRect(cx, cy, 1, 1, query_dictItemsInCellRect);
-    
-    for (Item item : dictItemsInCellRect) {
-      Rect rect = rects.get(item);
-      if ((filter == null || filter.filter(item, null) != null) && rect.rect_containsPoint(rect.x, rect.y, rect.w, rect.h, x, y)) {
-        items.add(item);
+    UniqueIntArray candidates = context.acquireCandidates();
+    try {
+      index.queryPoint(x, y, candidates, context);
+      ItemTable table = this.table;
+      for (int i = 0, n = candidates.size; i < n; i++) {
+        int handle = candidates.items[i];
+        Item item = table.items[handle];
+        if ((table.categories[handle] & mask) != 0 && (filter == null || filter.filter(item, null) != null) && Rect.rect_containsPoint(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle], x, y)) {
+          items.add(item);
+        }
       }
+    } finally {
+      context.releaseCandidates();
     }
     return items;
   }
@@ -515,12 +1167,36 @@ public class World<E> {
    *               "other" is null.
    * @param items An empty list that will be filled with the {@link Item} instances that intersect the segment.
    */
-  private final ArrayList<ItemInfo> query_infos = new ArrayList<ItemInfo>();
   public ArrayList<Item> querySegment(float x1, float y1, float x2, float y2, CollisionFilter filter, ArrayList<Item> items) {
+    return querySegment(x1, y1, x2, y2, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #querySegment(float, float, float, float, CollisionFilter, ArrayList)}, working in the scratch
+   * space of context instead of this World's.
+   */
+  public ArrayList<Item> querySegment(float x1, float y1, float x2, float y2, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
+    return querySegment(x1, y1, x2, y2, DEFAULT_MASK, filter, items, context);
+  }
+
+  /**
+   * The same as {@link #querySegment(float, float, float, float, CollisionFilter, ArrayList)}, for only the items whose
+   * category shares a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public ArrayList<Item> querySegment(float x1, float y1, float x2, float y2, int mask, CollisionFilter filter, ArrayList<Item> items) {
+    return querySegment(x1, y1, x2, y2, mask, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #querySegment(float, float, float, float, int, CollisionFilter, ArrayList)}, working in the
+   * scratch space of context instead of this World's.
+   */
+  public ArrayList<Item> querySegment(float x1, float y1, float x2, float y2, int mask, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
     items.clear();
-    ArrayList<ItemInfo> infos = getInfoAboutItemsTouchedBySegment(x1, y1, x2, y2, filter, query_infos);
-    for (ItemInfo info : infos) {
-      items.add(info.item);
+    ArrayList<ItemInfo> infos = getInfoAboutItemsTouchedBySegment(x1, y1, x2, y2, mask, filter, context.infos, context);
+    for (int i = 0, n = infos.size(); i < n; i++) {
+      items.add(infos.get(i).item);
     }
     
     return items;
@@ -531,15 +1207,24 @@ public class World<E> {
    * occurs compared to {@link World#querySegment(float, float, float, float, CollisionFilter, ArrayList)}
    * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
    *               "other" is null
-   * @param infos An empty list that will be filled with the collision information.
+   * @param infos A list that will be filled with the collision information. The {@link ItemInfo} instances already in
+   *              it are reused.
    */
   public ArrayList<ItemInfo> querySegmentWithCoords(float x1, float y1, float x2, float y2, CollisionFilter filter, ArrayList<ItemInfo> infos) {
-    infos.clear();
-    infos = getInfoAboutItemsTouchedBySegment(x1, y1, x2, y2, filter, infos);
+    return querySegmentWithCoords(x1, y1, x2, y2, filter, infos, defaultContext);
+  }
+
+  /**
+   * The same as {@link #querySegmentWithCoords(float, float, float, float, CollisionFilter, ArrayList)}, working in the
+   * scratch space of context instead of this World's.
+   */
+  public ArrayList<ItemInfo> querySegmentWithCoords(float x1, float y1, float x2, float y2, CollisionFilter filter, ArrayList<ItemInfo> infos, QueryContext context) {
+    infos = getInfoAboutItemsTouchedBySegment(x1, y1, x2, y2, DEFAULT_MASK, filter, infos, context);
     float dx = x2 - x1;
     float dy = y2 - y1;
     
-    for (ItemInfo info : infos) {
+    for (int i = 0, n = infos.size(); i < n; i++) {
+      ItemInfo info = infos.get(i);
       float ti1 = info.ti1;
       float ti2 = info.ti2;
       
@@ -564,10 +1249,56 @@ public class World<E> {
    * @param items An empty list that will be filled with the {@link Item} instances that intersect the ray.
    */
   public ArrayList<Item> queryRay(float originX, float originY, float dirX, float dirY, CollisionFilter filter,  ArrayList<Item> items) {
+    return queryRay(originX, originY, dirX, dirY, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRay(float, float, float, float, CollisionFilter, ArrayList)}, working in the scratch space
+   * of context instead of this World's.
+   */
+  public ArrayList<Item> queryRay(float originX, float originY, float dirX, float dirY, CollisionFilter filter,  ArrayList<Item> items, QueryContext context) {
+    return queryRay(originX, originY, dirX, dirY, Float.POSITIVE_INFINITY, filter, items, context);
+  }
+
+  /**
+   * A collision check of items that intersect the given ray within maxDistance of its origin. Only the cells or nodes
+   * within that distance are searched, so a short ray costs about as much as a segment of the same length, however big
+   * the world is.
+   * @param maxDistance how far from the origin to look, in world units; items are found if the ray enters them no
+   *                    further than this
+   * @see #queryRay(float, float, float, float, CollisionFilter, ArrayList)
+   */
+  public ArrayList<Item> queryRay(float originX, float originY, float dirX, float dirY, float maxDistance, CollisionFilter filter, ArrayList<Item> items) {
+    return queryRay(originX, originY, dirX, dirY, maxDistance, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRay(float, float, float, float, float, CollisionFilter, ArrayList)}, working in the scratch
+   * space of context instead of this World's.
+   */
+  public ArrayList<Item> queryRay(float originX, float originY, float dirX, float dirY, float maxDistance, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
+    return queryRay(originX, originY, dirX, dirY, maxDistance, DEFAULT_MASK, filter, items, context);
+  }
+
+  /**
+   * The same as {@link #queryRay(float, float, float, float, float, CollisionFilter, ArrayList)}, for only the items
+   * whose category shares a bit with mask. Other items are skipped before the filter is called. Pass
+   * {@link Float#POSITIVE_INFINITY} as maxDistance for a ray without a limit.
+   * @see #setCategory(Item, int, int)
+   */
+  public ArrayList<Item> queryRay(float originX, float originY, float dirX, float dirY, float maxDistance, int mask, CollisionFilter filter, ArrayList<Item> items) {
+    return queryRay(originX, originY, dirX, dirY, maxDistance, mask, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRay(float, float, float, float, float, int, CollisionFilter, ArrayList)}, working in the
+   * scratch space of context instead of this World's.
+   */
+  public ArrayList<Item> queryRay(float originX, float originY, float dirX, float dirY, float maxDistance, int mask, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
     items.clear();
-    ArrayList<ItemInfo> infos = getInfoAboutItemsTouchedByRay(originX, originY, dirX, dirY, filter, query_infos);
-    for (ItemInfo info : infos) {
-      items.add(info.item);
+    ArrayList<ItemInfo> infos = getInfoAboutItemsTouchedByRay(originX, originY, dirX, dirY, maxDistance, mask, filter, context.infos, context);
+    for (int i = 0, n = infos.size(); i < n; i++) {
+      items.add(infos.get(i).item);
     }
     
     return items;
@@ -582,13 +1313,40 @@ public class World<E> {
    * @param dirY The y component of the vector that defines the angle of the ray.
    * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
    *               "other" is null
-   * @param infos An empty list that will be filled with the collision information.
+   * @param infos A list that will be filled with the collision information. The {@link ItemInfo} instances already in
+   *              it are reused.
    */
   public ArrayList<ItemInfo> queryRayWithCoords(float originX, float originY, float dirX, float dirY, CollisionFilter filter, ArrayList<ItemInfo> infos) {
-    infos.clear();
-    infos = getInfoAboutItemsTouchedByRay(originX, originY, dirX, dirY, filter, infos);
+    return queryRayWithCoords(originX, originY, dirX, dirY, filter, infos, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRayWithCoords(float, float, float, float, CollisionFilter, ArrayList)}, working in the
+   * scratch space of context instead of this World's.
+   */
+  public ArrayList<ItemInfo> queryRayWithCoords(float originX, float originY, float dirX, float dirY, CollisionFilter filter, ArrayList<ItemInfo> infos, QueryContext context) {
+    return queryRayWithCoords(originX, originY, dirX, dirY, Float.POSITIVE_INFINITY, filter, infos, context);
+  }
+
+  /**
+   * The same as {@link #queryRayWithCoords(float, float, float, float, CollisionFilter, ArrayList)}, for the part of
+   * the ray within maxDistance of its origin. An item the ray leaves beyond that distance has x2,y2 cut off there.
+   * @param maxDistance how far from the origin to look, in world units
+   * @see #queryRay(float, float, float, float, float, CollisionFilter, ArrayList)
+   */
+  public ArrayList<ItemInfo> queryRayWithCoords(float originX, float originY, float dirX, float dirY, float maxDistance, CollisionFilter filter, ArrayList<ItemInfo> infos) {
+    return queryRayWithCoords(originX, originY, dirX, dirY, maxDistance, filter, infos, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRayWithCoords(float, float, float, float, float, CollisionFilter, ArrayList)}, working in
+   * the scratch space of context instead of this World's.
+   */
+  public ArrayList<ItemInfo> queryRayWithCoords(float originX, float originY, float dirX, float dirY, float maxDistance, CollisionFilter filter, ArrayList<ItemInfo> infos, QueryContext context) {
+    infos = getInfoAboutItemsTouchedByRay(originX, originY, dirX, dirY, maxDistance, DEFAULT_MASK, filter, infos, context);
     
-    for (ItemInfo info : infos) {
+    for (int i = 0, n = infos.size(); i < n; i++) {
+      ItemInfo info = infos.get(i);
       float ti1 = info.ti1;
       float ti2 = info.ti2;
       
@@ -601,4 +1359,934 @@ public class World<E> {
     
     return infos;
   }
+
+  /**
+   * Tracks the nearest hit for {@link #raycastFirst(float, float, float, float, CollisionFilter, RayHit)}, and clips
+   * the index's search to it.
+   */
+  static final class FirstHitCallback implements RaycastCallback {
+    ItemTable table;
+    float originX, originY, dirX, dirY;
+    int mask;
+    CollisionFilter filter;
+    int bestHandle;
+    float bestT;
+    int normalX, normalY;
+    final Point ti = new Point();
+    final IntPoint n1 = new IntPoint(), n2 = new IntPoint();
+
+    @Override
+    public float reportCandidate(int handle, float maxT) {
+      ItemTable table = this.table;
+      Item item = table.items[handle];
+      if (item == null || (table.categories[handle] & mask) == 0 || filter != null && filter.filter(item, null) == null) {
+        return maxT;
+      }
+      if (!rect_getSegmentIntersectionIndices(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle], originX, originY, originX + dirX, originY + dirY, 0, maxT, ti, n1, n2)) {
+        return maxT;
+      }
+      float t = ti.x;
+      if (bestHandle >= 0 && t >= bestT) {
+        return maxT;
+      }
+      bestHandle = handle;
+      bestT = t;
+      normalX = n1.x;
+      normalY = n1.y;
+      return t;
+    }
+  }
+
+  /**
+   * Finds the first item along the given ray, the same one that would come first from
+   * {@link #queryRayWithCoords(float, float, float, float, CollisionFilter, ArrayList)}, but stops searching as soon as
+   * nothing further along the ray could be closer. Nothing is collected, sorted or allocated.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   * @param hit filled with the item that was hit, where the ray enters it, and the normal of the side it enters through
+   * @return true if an item was hit; if not, hit.item is set to null
+   */
+  public boolean raycastFirst(float originX, float originY, float dirX, float dirY, CollisionFilter filter, RayHit hit) {
+    return raycastFirst(originX, originY, dirX, dirY, filter, hit, defaultContext);
+  }
+
+  /**
+   * The same as {@link #raycastFirst(float, float, float, float, CollisionFilter, RayHit)}, working in the scratch
+   * space of context instead of this World's.
+   */
+  public boolean raycastFirst(float originX, float originY, float dirX, float dirY, CollisionFilter filter, RayHit hit, QueryContext context) {
+    return raycastFirst(originX, originY, dirX, dirY, DEFAULT_MASK, filter, hit, context);
+  }
+
+  /**
+   * The same as {@link #raycastFirst(float, float, float, float, CollisionFilter, RayHit)}, for only the items whose
+   * category shares a bit with mask. Other items are skipped before the filter is called, so a ray can look past
+   * whole layers without a filter having to turn them down one by one.
+   * @see #setCategory(Item, int, int)
+   */
+  public boolean raycastFirst(float originX, float originY, float dirX, float dirY, int mask, CollisionFilter filter, RayHit hit) {
+    return raycastFirst(originX, originY, dirX, dirY, mask, filter, hit, defaultContext);
+  }
+
+  /**
+   * The same as {@link #raycastFirst(float, float, float, float, int, CollisionFilter, RayHit)}, working in the scratch
+   * space of context instead of this World's.
+   */
+  public boolean raycastFirst(float originX, float originY, float dirX, float dirY, int mask, CollisionFilter filter, RayHit hit, QueryContext context) {
+    hit.item = null;
+    if (dirX == 0 && dirY == 0) {
+      return false;
+    }
+    // the filter may start another raycast on this context, so each level of nesting has a callback of its own
+    FirstHitCallback callback = context.firstHits.acquire();
+    try {
+      callback.table = table;
+      callback.originX = originX;
+      callback.originY = originY;
+      callback.dirX = dirX;
+      callback.dirY = dirY;
+      callback.mask = mask;
+      callback.filter = filter;
+      callback.bestHandle = -1;
+      index.raycast(originX, originY, dirX, dirY, Float.MAX_VALUE, callback, context);
+      int handle = callback.bestHandle;
+      if (handle < 0) {
+        return false;
+      }
+      float t = callback.bestT;
+      hit.set(table.items[handle], t, originX + dirX * t, originY + dirY * t, callback.normalX, callback.normalY);
+      return true;
+    } finally {
+      callback.table = null;
+      callback.filter = null;
+      context.firstHits.release();
+    }
+  }
+
+  /**
+   * Looks for any hit along a segment for {@link #isSegmentClear(float, float, float, float, CollisionFilter)}, and
+   * ends the index's search as soon as it has one.
+   */
+  static final class AnyHitCallback implements RaycastCallback {
+    ItemTable table;
+    float x1, y1, x2, y2;
+    int mask;
+    CollisionFilter filter;
+    boolean hit;
+    final Point ti = new Point();
+    final IntPoint n1 = new IntPoint(), n2 = new IntPoint();
+
+    @Override
+    public float reportCandidate(int handle, float maxT) {
+      if (hit) {
+        return -1;
+      }
+      ItemTable table = this.table;
+      Item item = table.items[handle];
+      if (item != null && (table.categories[handle] & mask) != 0
+          && rect_getSegmentIntersectionIndices(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle], x1, y1, x2, y2, 0, 1, ti, n1, n2)) {
+        float ti1 = ti.x, ti2 = ti.y;
+        if (((0 < ti1 && ti1 < 1) || (0 < ti2 && ti2 < 1)) && (filter == null || filter.filter(item, null) != null)) {
+          hit = true;
+          return -1;
+        }
+      }
+      return maxT;
+    }
+  }
+
+  /**
+   * Tests the candidates of a rectangle or point query as the index finds them, for
+   * {@link #isRectFree(float, float, float, float, CollisionFilter)}, {@link #isPointFree(float, float, CollisionFilter)}
+   * and the {@link QueryVisitor} overloads of queryRect and queryPoint. Each item that touches the area and passes the
+   * filter goes to the visitor; without a visitor, the first one ends the index's search.
+   */
+  static final class AreaCallback implements QueryCallback {
+    ItemTable table;
+    float x, y, w, h;
+    boolean point;
+    int mask;
+    CollisionFilter filter;
+    QueryVisitor visitor;
+    boolean hit;
+
+    @Override
+    public boolean reportCandidate(int handle) {
+      ItemTable table = this.table;
+      Item item = table.items[handle];
+      if (item == null || (table.categories[handle] & mask) == 0 || (point ? !Rect.rect_containsPoint(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle], x, y)
+          : !Rect.rect_isIntersecting(x, y, w, h, table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle]))
+          || filter != null && filter.filter(item, null) == null) {
+        return true;
+      }
+      if (visitor == null) {
+        hit = true;
+        return false;
+      }
+      return visitor.visit(item, 0, 0);
+    }
+  }
+
+  /**
+   * Walks the index over the given rectangle, or over the point x,y if point is true, with an {@link AreaCallback}.
+   * @return true if the walk stopped at an item because there was no visitor to hand it to
+   */
+  private boolean visitArea(float x, float y, float w, float h, boolean point, int mask, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    // the filter or visitor may start another query on this context, so each level of nesting has a callback of its own
+    AreaCallback callback = context.areaCallbacks.acquire();
+    try {
+      callback.table = table;
+      callback.x = x;
+      callback.y = y;
+      callback.w = w;
+      callback.h = h;
+      callback.point = point;
+      callback.mask = mask;
+      callback.filter = filter;
+      callback.visitor = visitor;
+      callback.hit = false;
+      if (point) {
+        index.queryPoint(x, y, callback, context);
+      } else {
+        index.queryRect(x, y, w, h, callback, context);
+      }
+      return callback.hit;
+    } finally {
+      callback.table = null;
+      callback.filter = null;
+      callback.visitor = null;
+      context.areaCallbacks.release();
+    }
+  }
+
+  /**
+   * Hands the items along a segment or ray to a {@link QueryVisitor} as the index finds them, for the visitor overloads
+   * of querySegment and queryRay, and ends the index's search once the visitor returns false.
+   */
+  static final class LineCallback implements RaycastCallback {
+    ItemTable table;
+    float x1, y1, x2, y2;
+    boolean segment;
+    int mask;
+    CollisionFilter filter;
+    QueryVisitor visitor;
+    boolean done;
+    final Point ti = new Point();
+    final IntPoint n1 = new IntPoint(), n2 = new IntPoint();
+
+    @Override
+    public float reportCandidate(int handle, float maxT) {
+      if (done) {
+        return -1;
+      }
+      ItemTable table = this.table;
+      Item item = table.items[handle];
+      if (item == null || (table.categories[handle] & mask) == 0 || filter != null && filter.filter(item, null) == null
+          || !rect_getSegmentIntersectionIndices(table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle], x1, y1, x2, y2, 0, segment ? 1 : Float.MAX_VALUE, ti, n1, n2)) {
+        return maxT;
+      }
+      float ti1 = ti.x, ti2 = ti.y;
+      if (segment && !((0 < ti1 && ti1 < 1) || (0 < ti2 && ti2 < 1))) {
+        return maxT;
+      }
+      if (!visitor.visit(item, ti1, ti2)) {
+        done = true;
+        return -1;
+      }
+      return maxT;
+    }
+  }
+
+  /**
+   * Walks the index along the segment from x1,y1 to x2,y2, or along the ray from x1,y1 through x2,y2 if segment is
+   * false, with a {@link LineCallback}.
+   */
+  private void visitLine(float x1, float y1, float x2, float y2, boolean segment, int mask, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    // the filter or visitor may start another query on this context, so each level of nesting has a callback of its own
+    LineCallback callback = context.lineCallbacks.acquire();
+    try {
+      callback.table = table;
+      callback.x1 = x1;
+      callback.y1 = y1;
+      callback.x2 = x2;
+      callback.y2 = y2;
+      callback.segment = segment;
+      callback.mask = mask;
+      callback.filter = filter;
+      callback.visitor = visitor;
+      callback.done = false;
+      index.raycast(x1, y1, x2 - x1, y2 - y1, segment ? 1 : Float.MAX_VALUE, callback, context);
+    } finally {
+      callback.table = null;
+      callback.filter = null;
+      callback.visitor = null;
+      context.lineCallbacks.release();
+    }
+  }
+
+  /**
+   * Returns true if no item intersects the given rectangle, or in other words, if
+   * {@link #queryRect(float, float, float, float, CollisionFilter, ArrayList)} would find nothing. The index reports
+   * its candidates one at a time and the search ends at the first item that intersects and passes the filter, so the
+   * rest of the rectangle isn't walked. This doesn't allocate. The filter is only called for items that intersect the
+   * rectangle.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   */
+  public boolean isRectFree(float x, float y, float w, float h, CollisionFilter filter) {
+    return isRectFree(x, y, w, h, filter, defaultContext);
+  }
+
+  /**
+   * The same as {@link #isRectFree(float, float, float, float, CollisionFilter)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public boolean isRectFree(float x, float y, float w, float h, CollisionFilter filter, QueryContext context) {
+    return isRectFree(x, y, w, h, DEFAULT_MASK, filter, context);
+  }
+
+  /**
+   * The same as {@link #isRectFree(float, float, float, float, CollisionFilter)}, for only the items whose category
+   * shares a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public boolean isRectFree(float x, float y, float w, float h, int mask, CollisionFilter filter) {
+    return isRectFree(x, y, w, h, mask, filter, defaultContext);
+  }
+
+  /**
+   * The same as {@link #isRectFree(float, float, float, float, int, CollisionFilter)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public boolean isRectFree(float x, float y, float w, float h, int mask, CollisionFilter filter, QueryContext context) {
+    return !visitArea(x, y, w, h, false, mask, filter, null, context);
+  }
+
+  /**
+   * Returns true if no item contains the given point, or in other words, if
+   * {@link #queryPoint(float, float, CollisionFilter, ArrayList)} would find nothing. The search ends at the first item
+   * that contains it and passes the filter, and this doesn't allocate. The filter is only called for items that contain
+   * the point.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   */
+  public boolean isPointFree(float x, float y, CollisionFilter filter) {
+    return isPointFree(x, y, filter, defaultContext);
+  }
+
+  /**
+   * The same as {@link #isPointFree(float, float, CollisionFilter)}, working in the scratch space of context instead of
+   * this World's.
+   */
+  public boolean isPointFree(float x, float y, CollisionFilter filter, QueryContext context) {
+    return isPointFree(x, y, DEFAULT_MASK, filter, context);
+  }
+
+  /**
+   * The same as {@link #isPointFree(float, float, CollisionFilter)}, for only the items whose category shares a bit
+   * with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public boolean isPointFree(float x, float y, int mask, CollisionFilter filter) {
+    return isPointFree(x, y, mask, filter, defaultContext);
+  }
+
+  /**
+   * The same as {@link #isPointFree(float, float, int, CollisionFilter)}, working in the scratch space of context
+   * instead of this World's.
+   */
+  public boolean isPointFree(float x, float y, int mask, CollisionFilter filter, QueryContext context) {
+    return !visitArea(x, y, 0, 0, true, mask, filter, null, context);
+  }
+
+  /**
+   * Returns true if no item intersects the given line segment, or in other words, if
+   * {@link #querySegment(float, float, float, float, CollisionFilter, ArrayList)} would find nothing. The index is
+   * walked from x1,y1 on and the search ends at the first item that intersects and passes the filter, so a blocked line
+   * of sight is usually found within a few cells. This doesn't allocate. The filter is only called for items that
+   * intersect the segment.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   */
+  public boolean isSegmentClear(float x1, float y1, float x2, float y2, CollisionFilter filter) {
+    return isSegmentClear(x1, y1, x2, y2, filter, defaultContext);
+  }
+
+  /**
+   * The same as {@link #isSegmentClear(float, float, float, float, CollisionFilter)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public boolean isSegmentClear(float x1, float y1, float x2, float y2, CollisionFilter filter, QueryContext context) {
+    return isSegmentClear(x1, y1, x2, y2, DEFAULT_MASK, filter, context);
+  }
+
+  /**
+   * The same as {@link #isSegmentClear(float, float, float, float, CollisionFilter)}, for only the items whose category
+   * shares a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public boolean isSegmentClear(float x1, float y1, float x2, float y2, int mask, CollisionFilter filter) {
+    return isSegmentClear(x1, y1, x2, y2, mask, filter, defaultContext);
+  }
+
+  /**
+   * The same as {@link #isSegmentClear(float, float, float, float, int, CollisionFilter)}, working in the scratch space
+   * of context instead of this World's.
+   */
+  public boolean isSegmentClear(float x1, float y1, float x2, float y2, int mask, CollisionFilter filter, QueryContext context) {
+    if (x1 == x2 && y1 == y2) {
+      // querySegment never finds anything along a segment without length
+      return true;
+    }
+    // the filter may start another query on this context, so each level of nesting has a callback of its own
+    AnyHitCallback callback = context.anyHits.acquire();
+    try {
+      callback.table = table;
+      callback.x1 = x1;
+      callback.y1 = y1;
+      callback.x2 = x2;
+      callback.y2 = y2;
+      callback.mask = mask;
+      callback.filter = filter;
+      callback.hit = false;
+      index.raycast(x1, y1, x2 - x1, y2 - y1, 1, callback, context);
+      return !callback.hit;
+    } finally {
+      callback.table = null;
+      callback.filter = null;
+      context.anyHits.release();
+    }
+  }
+
+  /**
+   * Finds the items that a rectangle would touch while moving from x,y to goalX,goalY, which are the items that
+   * {@link #project(Item, float, float, float, float, float, float, CollisionFilter, Collisions)} would collide with.
+   * Only the cells or nodes that the swept area reaches are searched, so a long diagonal move looks at far fewer items
+   * than a query over its bounding rectangle would.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   * @param items An empty list that will be filled with the {@link Item} instances the rectangle touches, in no
+   *              particular order.
+   */
+  public ArrayList<Item> querySweptRect(float x, float y, float w, float h, float goalX, float goalY, CollisionFilter filter, ArrayList<Item> items) {
+    return querySweptRect(x, y, w, h, goalX, goalY, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #querySweptRect(float, float, float, float, float, float, CollisionFilter, ArrayList)}, working
+   * in the scratch space of context instead of this World's.
+   */
+  public ArrayList<Item> querySweptRect(float x, float y, float w, float h, float goalX, float goalY, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
+    items.clear();
+    UniqueIntArray candidates = context.acquireCandidates();
+    try {
+      index.querySweptRect(x, y, w, h, goalX, goalY, candidates, context);
+      ItemTable table = this.table;
+      RectHelper rectHelper = context.rectHelper;
+      for (int i = 0, n = candidates.size; i < n; i++) {
+        int handle = candidates.items[i];
+        Item item = table.items[handle];
+        if ((filter == null || filter.filter(item, null) != null)
+            && rectHelper.rect_detectCollision(x, y, w, h, table.xs[handle], table.ys[handle], table.ws[handle], table.hs[handle], goalX, goalY) != null) {
+          items.add(item);
+        }
+      }
+    } finally {
+      context.releaseCandidates();
+    }
+    return items;
+  }
+
+  /**
+   * Runs a batch of rectangle queries at once, giving the same items as calling
+   * {@link #queryRect(float, float, float, float, CollisionFilter, ArrayList)} for each. On a grid, every cell the
+   * rectangles touch is looked up once for the whole batch, in order of position, which saves a lot of lookups when
+   * many rectangles share a neighbourhood.
+   * @param rects count rectangles, packed as x, y, w, h
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item. It is only called for items inside the rectangle.
+   * @param result filled with the items found by each query, in no particular order within a query
+   */
+  public BatchResult queryRects(float[] rects, int count, CollisionFilter filter, BatchResult result) {
+    return queryRects(rects, count, filter, result, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRects(float[], int, CollisionFilter, BatchResult)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public BatchResult queryRects(float[] rects, int count, CollisionFilter filter, BatchResult result, QueryContext context) {
+    context.batchQueries.clear();
+    context.batchHandles.clear();
+    index.queryRects(rects, count, context.batchQueries, context.batchHandles, context);
+    return collectBatch(rects, count, false, filter, result, context);
+  }
+
+  /**
+   * Runs a batch of point queries at once, giving the same items as calling
+   * {@link #queryPoint(float, float, CollisionFilter, ArrayList)} for each.
+   * @param points count points, packed as x, y
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item. It is only called for items containing the point.
+   * @param result filled with the items found by each query, in no particular order within a query
+   * @see #queryRects(float[], int, CollisionFilter, BatchResult)
+   */
+  public BatchResult queryPoints(float[] points, int count, CollisionFilter filter, BatchResult result) {
+    return queryPoints(points, count, filter, result, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryPoints(float[], int, CollisionFilter, BatchResult)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public BatchResult queryPoints(float[] points, int count, CollisionFilter filter, BatchResult result, QueryContext context) {
+    context.batchQueries.clear();
+    context.batchHandles.clear();
+    index.queryPoints(points, count, context.batchQueries, context.batchHandles, context);
+    return collectBatch(points, count, true, filter, result, context);
+  }
+
+  /**
+   * Groups the candidate pairs from the index by query with a counting sort, then drops duplicates and items that fail
+   * the exact test or the filter while packing them into result.
+   */
+  private BatchResult collectBatch(float[] data, int count, boolean points, CollisionFilter filter, BatchResult result, QueryContext context) {
+    int pairs = context.batchQueries.size;
+    int[] pairQueries = context.batchQueries.items, pairHandles = context.batchHandles.items;
+    result.begin(count, pairs);
+    if (context.batchStarts.length < count + 1) {
+      context.batchStarts = new int[count + 1];
+    }
+    if (context.batchSorted.length < pairs) {
+      context.batchSorted = new int[pairs];
+    }
+    int[] starts = context.batchStarts, sorted = context.batchSorted, offsets = result.offsets;
+    Arrays.fill(starts, 0, count + 1, 0);
+    for (int p = 0; p < pairs; p++) {
+      starts[pairQueries[p] + 1]++;
+    }
+    for (int q = 0; q < count; q++) {
+      starts[q + 1] += starts[q];
+    }
+    // offsets serves as the insertion cursor of each query until the results are packed
+    System.arraycopy(starts, 0, offsets, 0, count);
+    for (int p = 0; p < pairs; p++) {
+      sorted[offsets[pairQueries[p]]++] = pairHandles[p];
+    }
+
+    ItemTable table = this.table;
+    UniqueIntArray seen = context.batchSeen;
+    int[] handles = result.handles;
+    Item[] items = result.items;
+    int size = 0;
+    for (int q = 0, stride = points ? 2 : 4; q < count; q++) {
+      offsets[q] = size;
+      seen.clear();
+      int i = q * stride;
+      float x = data[i], y = data[i + 1];
+      float w = points ? 0 : data[i + 2], h = points ? 0 : data[i + 3];
+      for (int p = starts[q], end = starts[q + 1]; p < end; p++) {
+        int handle = sorted[p];
+        if (!seen.add(handle)) {
+          continue;
+        }
+        float ix = table.xs[handle], iy = table.ys[handle], iw = table.ws[handle], ih = table.hs[handle];
+        if (points ? !Rect.rect_containsPoint(ix, iy, iw, ih, x, y) : !Rect.rect_isIntersecting(x, y, w, h, ix, iy, iw, ih)) {
+          continue;
+        }
+        Item item = table.items[handle];
+        if (filter == null || filter.filter(item, null) != null) {
+          handles[size] = handle;
+          items[size++] = item;
+        }
+      }
+    }
+    offsets[count] = size;
+    return result;
+  }
+
+  /**
+   * Returns the squared distance from x,y to the nearest point of the rectangle with the given handle, or 0 if the point
+   * is inside it.
+   */
+  private float distanceSquared(int handle, float x, float y) {
+    ItemTable table = this.table;
+    float l = table.xs[handle], t = table.ys[handle];
+    float dx = max(max(l - x, x - (l + table.ws[handle])), 0);
+    float dy = max(max(t - y, y - (t + table.hs[handle])), 0);
+    return dx * dx + dy * dy;
+  }
+
+  /**
+   * Where the rectangle queries for {@link #queryNearest(float, float, int, CollisionFilter, ArrayList)} start when the
+   * index isn't a plain grid; the square doubles in size until it's big enough.
+   */
+  private static final float NEAREST_START = 64;
+
+  /**
+   * Finds the k items closest to the given point, measuring to the nearest point of each item's rectangle, so an item
+   * that contains the point is at distance 0. Items at the same distance are in no particular order.
+   * <br>
+   * On a grid, this looks through the cell that holds the point and then through rings of cells around it, and stops as
+   * soon as the k-th closest item found so far is closer than anything in the next ring could be. Other indexes are
+   * searched with a square that doubles in size until the same holds for it.
+   * @param k the most items to find
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   * @param items An empty list that will be filled with up to k {@link Item} instances, closest first.
+   */
+  public ArrayList<Item> queryNearest(float x, float y, int k, CollisionFilter filter, ArrayList<Item> items) {
+    return queryNearest(x, y, k, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryNearest(float, float, int, CollisionFilter, ArrayList)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public ArrayList<Item> queryNearest(float x, float y, int k, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
+    items.clear();
+    if (k <= 0 || table.size() == 0) {
+      return items;
+    }
+    // the filter may start another query on this context, so each level of nesting keeps its own closest items
+    NearestSearch search = context.nearestSearches.acquire();
+    UniqueIntArray candidates = context.acquireCandidates();
+    try {
+      if (search.handles.length < k) {
+        search.handles = new int[k];
+        search.distances = new float[k];
+      }
+      search.count = 0;
+
+      if (gridIndex != null) {
+        float cellSize = gridIndex.getCellSize();
+        Point cell = context.nearestCell;
+        grid_toCell(cellSize, x, y, cell);
+        float cx = cell.x, cy = cell.y;
+        int ring = 0;
+        while (true) {
+          int start = candidates.size;
+          int next = gridIndex.queryRing(cx, cy, ring, candidates);
+          considerNearest(candidates, start, x, y, k, filter, search);
+          if (next < 0) {
+            break;
+          }
+          if (search.count == k) {
+            // every ring before next has been searched, so anything not seen yet lies outside these cells
+            int searched = next - 1;
+            float gap = min(min(x - (cx - searched - 1) * cellSize, (cx + searched) * cellSize - x),
+                    min(y - (cy - searched - 1) * cellSize, (cy + searched) * cellSize - y));
+            if (search.distances[k - 1] <= gap * gap) {
+              break;
+            }
+          }
+          ring = next;
+        }
+      } else {
+        int total = table.size();
+        for (float half = NEAREST_START; ; half *= 2) {
+          int start = candidates.size;
+          index.queryRect(x - half, y - half, half * 2, half * 2, candidates, context);
+          considerNearest(candidates, start, x, y, k, filter, search);
+          // anything the index didn't return is outside the square
+          if (candidates.size >= total || search.count == k && search.distances[k - 1] <= half * half) {
+            break;
+          }
+        }
+      }
+
+      Item[] tableItems = table.items;
+      for (int i = 0; i < search.count; i++) {
+        items.add(tableItems[search.handles[i]]);
+      }
+      return items;
+    } finally {
+      context.releaseCandidates();
+      context.nearestSearches.release();
+    }
+  }
+
+  /**
+   * The closest items that {@link #queryNearest(float, float, int, CollisionFilter, ArrayList)} has found so far,
+   * closest first.
+   */
+  static final class NearestSearch {
+    int[] handles = new int[16];
+    float[] distances = new float[16];
+    int count;
+  }
+
+  /**
+   * Adds the candidates from start on to the k closest so far, keeping them sorted by distance.
+   */
+  private void considerNearest(UniqueIntArray candidates, int start, float x, float y, int k, CollisionFilter filter, NearestSearch search) {
+    int[] handles = search.handles;
+    float[] distances = search.distances;
+    Item[] tableItems = table.items;
+    for (int i = start; i < candidates.size; i++) {
+      int handle = candidates.items[i];
+      float d = distanceSquared(handle, x, y);
+      int count = search.count;
+      if (count == k && d >= distances[k - 1]) {
+        continue;
+      }
+      if (filter != null && filter.filter(tableItems[handle], null) == null) {
+        continue;
+      }
+      int j = count == k ? k - 1 : count++;
+      for (; j > 0 && distances[j - 1] > d; j--) {
+        handles[j] = handles[j - 1];
+        distances[j] = distances[j - 1];
+      }
+      handles[j] = handle;
+      distances[j] = d;
+      search.count = count;
+    }
+  }
+
+  /**
+   * A collision check of items that intersect the given circle, in no particular order; use
+   * {@link #queryNearest(float, float, int, CollisionFilter, ArrayList)} to get items sorted by distance.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item. It is only called for items inside the circle.
+   * @param items An empty list that will be filled with the {@link Item} instances that intersect the circle.
+   */
+  public ArrayList<Item> queryCircle(float cx, float cy, float r, CollisionFilter filter, ArrayList<Item> items) {
+    return queryCircle(cx, cy, r, filter, items, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryCircle(float, float, float, CollisionFilter, ArrayList)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public ArrayList<Item> queryCircle(float cx, float cy, float r, CollisionFilter filter, ArrayList<Item> items, QueryContext context) {
+    items.clear();
+    UniqueIntArray candidates = context.acquireCandidates();
+    try {
+      index.queryRect(cx - r, cy - r, r * 2, r * 2, candidates, context);
+      float r2 = r * r;
+      Item[] tableItems = table.items;
+      for (int i = 0, n = candidates.size; i < n; i++) {
+        int handle = candidates.items[i];
+        // touching the circle doesn't count, just as touching a rectangle doesn't for queryRect
+        if (distanceSquared(handle, cx, cy) < r2) {
+          Item item = tableItems[handle];
+          if (filter == null || filter.filter(item, null) != null) {
+            items.add(item);
+          }
+        }
+      }
+    } finally {
+      context.releaseCandidates();
+    }
+    return items;
+  }
+
+  /**
+   * Streams the items that intersect the given rectangle to visitor as the index finds them, without building a list.
+   * Once visitor returns false, the index stops walking the rectangle.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   * @param visitor called once for each item found, with ti1 and ti2 both 0, until it returns false.
+   */
+  public void queryRect(float x, float y, float w, float h, CollisionFilter filter, QueryVisitor visitor) {
+    queryRect(x, y, w, h, filter, visitor, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRect(float, float, float, float, CollisionFilter, QueryVisitor)}, working in the scratch
+   * space of context instead of this World's.
+   */
+  public void queryRect(float x, float y, float w, float h, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    queryRect(x, y, w, h, DEFAULT_MASK, filter, visitor, context);
+  }
+
+  /**
+   * The same as {@link #queryRect(float, float, float, float, CollisionFilter, QueryVisitor)}, for only the items whose
+   * category shares a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public void queryRect(float x, float y, float w, float h, int mask, CollisionFilter filter, QueryVisitor visitor) {
+    queryRect(x, y, w, h, mask, filter, visitor, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRect(float, float, float, float, int, CollisionFilter, QueryVisitor)}, working in the
+   * scratch space of context instead of this World's.
+   */
+  public void queryRect(float x, float y, float w, float h, int mask, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    visitArea(x, y, w, h, false, mask, filter, visitor, context);
+  }
+
+  /**
+   * Streams the items that contain the given point to visitor as the index finds them, without building a list.
+   * Once visitor returns false, the index stops looking.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   * @param visitor called once for each item found, with ti1 and ti2 both 0, until it returns false.
+   */
+  public void queryPoint(float x, float y, CollisionFilter filter, QueryVisitor visitor) {
+    queryPoint(x, y, filter, visitor, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryPoint(float, float, CollisionFilter, QueryVisitor)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public void queryPoint(float x, float y, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    queryPoint(x, y, DEFAULT_MASK, filter, visitor, context);
+  }
+
+  /**
+   * The same as {@link #queryPoint(float, float, CollisionFilter, QueryVisitor)}, for only the items whose category
+   * shares a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public void queryPoint(float x, float y, int mask, CollisionFilter filter, QueryVisitor visitor) {
+    queryPoint(x, y, mask, filter, visitor, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryPoint(float, float, int, CollisionFilter, QueryVisitor)}, working in the scratch space of
+   * context instead of this World's.
+   */
+  public void queryPoint(float x, float y, int mask, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    visitArea(x, y, 0, 0, true, mask, filter, visitor, context);
+  }
+
+  /**
+   * Streams the items that intersect the given line segment to visitor as they are found, without building or sorting
+   * a list. Unlike {@link #querySegment(float, float, float, float, CollisionFilter, ArrayList)}, the items don't
+   * arrive in order along the segment, though roughly so. Once visitor returns false, the index stops walking the
+   * segment.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   * @param visitor called once for each item found, until it returns false. ti1 and ti2 are where the item is entered
+   *                and left, from 0 at x1,y1 to 1 at x2,y2.
+   */
+  public void querySegment(float x1, float y1, float x2, float y2, CollisionFilter filter, QueryVisitor visitor) {
+    querySegment(x1, y1, x2, y2, filter, visitor, defaultContext);
+  }
+
+  /**
+   * The same as {@link #querySegment(float, float, float, float, CollisionFilter, QueryVisitor)}, working in the
+   * scratch space of context instead of this World's.
+   */
+  public void querySegment(float x1, float y1, float x2, float y2, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    querySegment(x1, y1, x2, y2, DEFAULT_MASK, filter, visitor, context);
+  }
+
+  /**
+   * The same as {@link #querySegment(float, float, float, float, CollisionFilter, QueryVisitor)}, for only the items
+   * whose category shares a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public void querySegment(float x1, float y1, float x2, float y2, int mask, CollisionFilter filter, QueryVisitor visitor) {
+    querySegment(x1, y1, x2, y2, mask, filter, visitor, defaultContext);
+  }
+
+  /**
+   * The same as {@link #querySegment(float, float, float, float, int, CollisionFilter, QueryVisitor)}, working in the
+   * scratch space of context instead of this World's.
+   */
+  public void querySegment(float x1, float y1, float x2, float y2, int mask, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    if (x1 != x2 || y1 != y2) {
+      // querySegment never finds anything along a segment without length
+      visitLine(x1, y1, x2, y2, true, mask, filter, visitor, context);
+    }
+  }
+
+  /**
+   * Streams the items that intersect the given ray to visitor as they are found, without building or sorting a list.
+   * Unlike {@link #queryRay(float, float, float, float, CollisionFilter, ArrayList)}, the items don't arrive in order
+   * along the ray, though roughly so. Once visitor returns false, the index stops walking the ray.
+   * @param filter Defines what items will be checked for collision. "item" is the {@link Item} checked for collision.
+   *               "other" is null. May be null to check every item.
+   * @param visitor called once for each item found, until it returns false. ti1 and ti2 are where the item is entered
+   *                and left, as multiples of dirX,dirY from the origin.
+   */
+  public void queryRay(float originX, float originY, float dirX, float dirY, CollisionFilter filter, QueryVisitor visitor) {
+    queryRay(originX, originY, dirX, dirY, filter, visitor, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRay(float, float, float, float, CollisionFilter, QueryVisitor)}, working in the scratch
+   * space of context instead of this World's.
+   */
+  public void queryRay(float originX, float originY, float dirX, float dirY, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    queryRay(originX, originY, dirX, dirY, DEFAULT_MASK, filter, visitor, context);
+  }
+
+  /**
+   * The same as {@link #queryRay(float, float, float, float, CollisionFilter, QueryVisitor)}, for only the items whose
+   * category shares a bit with mask. Other items are skipped before the filter is called.
+   * @see #setCategory(Item, int, int)
+   */
+  public void queryRay(float originX, float originY, float dirX, float dirY, int mask, CollisionFilter filter, QueryVisitor visitor) {
+    queryRay(originX, originY, dirX, dirY, mask, filter, visitor, defaultContext);
+  }
+
+  /**
+   * The same as {@link #queryRay(float, float, float, float, int, CollisionFilter, QueryVisitor)}, working in the
+   * scratch space of context instead of this World's.
+   */
+  public void queryRay(float originX, float originY, float dirX, float dirY, int mask, CollisionFilter filter, QueryVisitor visitor, QueryContext context) {
+    visitLine(originX, originY, originX + dirX, originY + dirY, false, mask, filter, visitor, context);
+  }
+
+  /**
+   * The same as {@link #queryRect(float, float, float, float, CollisionFilter, ArrayList)}, filling ids with the ids
+   * of the items that were added by id.
+   * @param filter called with the id of each candidate and {@link IdCollisionFilter#NO_ID}; may be null to accept all
+   */
+  public IntArray queryRect(float x, float y, float w, float h, IdCollisionFilter filter, IntArray ids) {
+    IdFilterAdapter adapter = acquireIdFilter(filter);
+    try {
+      return toIds(queryRect(x, y, w, h, queryFilter(adapter), adapter.items), ids);
+    } finally {
+      releaseIdFilter(adapter);
+    }
+  }
+
+  /**
+   * The same as {@link #queryPoint(float, float, CollisionFilter, ArrayList)}, filling ids with the ids of the items
+   * that were added by id.
+   * @param filter called with the id of each candidate and {@link IdCollisionFilter#NO_ID}; may be null to accept all
+   */
+  public IntArray queryPoint(float x, float y, IdCollisionFilter filter, IntArray ids) {
+    IdFilterAdapter adapter = acquireIdFilter(filter);
+    try {
+      return toIds(queryPoint(x, y, queryFilter(adapter), adapter.items), ids);
+    } finally {
+      releaseIdFilter(adapter);
+    }
+  }
+
+  /**
+   * The same as {@link #querySegment(float, float, float, float, CollisionFilter, ArrayList)}, filling ids with the ids
+   * of the items that were added by id, in order along the segment.
+   * @param filter called with the id of each candidate and {@link IdCollisionFilter#NO_ID}; may be null to accept all
+   */
+  public IntArray querySegment(float x1, float y1, float x2, float y2, IdCollisionFilter filter, IntArray ids) {
+    IdFilterAdapter adapter = acquireIdFilter(filter);
+    try {
+      return toIds(querySegment(x1, y1, x2, y2, queryFilter(adapter), adapter.items), ids);
+    } finally {
+      releaseIdFilter(adapter);
+    }
+  }
+
+  /**
+   * The same as {@link #queryRay(float, float, float, float, CollisionFilter, ArrayList)}, filling ids with the ids of
+   * the items that were added by id, in order along the ray.
+   * @param filter called with the id of each candidate and {@link IdCollisionFilter#NO_ID}; may be null to accept all
+   */
+  public IntArray queryRay(float originX, float originY, float dirX, float dirY, IdCollisionFilter filter, IntArray ids) {
+    IdFilterAdapter adapter = acquireIdFilter(filter);
+    try {
+      return toIds(queryRay(originX, originY, dirX, dirY, queryFilter(adapter), adapter.items), ids);
+    } finally {
+      releaseIdFilter(adapter);
+    }
+  }
 }
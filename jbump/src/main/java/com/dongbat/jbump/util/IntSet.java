@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright 2021 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.dongbat.jbump.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An unordered set where the items are primitive ints. No allocation is done except when growing the table size, and
+ * items are never boxed.
+ * <p>
+ * This uses linear probing with the backward shift algorithm for removal, the same as {@link ObjectSet}. 0 marks an
+ * empty slot in the table, so the item 0 is tracked separately. Like ObjectSet, {@link #iterator()} reuses one of two
+ * iterators, so it can't be used nested over the same set.
+ * @author Nathan Sweet
+ * @author Tommy Ettinger
+ */
+public class IntSet {
+
+	protected int size;
+
+	protected int[] keyTable;
+	protected boolean hasZeroValue;
+
+	protected float loadFactor;
+	protected int threshold;
+
+	protected int shift;
+
+	/**
+	 * A bitmask used to confine hashcodes to the size of the table. Must be all 1 bits in its low positions, ie a power of two
+	 * minus 1.
+	 */
+	protected int mask;
+	protected transient IntSetIterator iterator1;
+	protected transient IntSetIterator iterator2;
+
+	/**
+	 * Creates a new set with an initial capacity of 51 and a load factor of 0.7.
+	 */
+	public IntSet () {
+		this(51, 0.7f);
+	}
+
+	/**
+	 * Creates a new set with a load factor of 0.7.
+	 *
+	 * @param initialCapacity If not a power of two, it is increased to the next nearest power of two.
+	 */
+	public IntSet (int initialCapacity) {
+		this(initialCapacity, 0.7f);
+	}
+
+	/**
+	 * Creates a new set with the specified initial capacity and load factor. This set will hold initialCapacity items before
+	 * growing the backing table.
+	 *
+	 * @param initialCapacity If not a power of two, it is increased to the next nearest power of two.
+	 * @param loadFactor what fraction of the capacity can be filled before this has to resize; 0 &lt; loadFactor &lt;= 1
+	 */
+	public IntSet (int initialCapacity, float loadFactor) {
+		if (loadFactor <= 0f || loadFactor > 1f) { throw new IllegalArgumentException("loadFactor must be > 0 and <= 1: " + loadFactor); }
+		this.loadFactor = loadFactor;
+
+		int tableSize = ObjectSet.tableSize(initialCapacity, loadFactor);
+		threshold = (int)(tableSize * loadFactor);
+		mask = tableSize - 1;
+		shift = Long.numberOfLeadingZeros(mask);
+
+		keyTable = new int[tableSize];
+	}
+
+	/**
+	 * Returns an index &gt;= 0 and &lt;= {@link #mask} for the specified {@code item}.
+	 * @param item any int
+	 * @return an index between 0 and {@link #mask} (both inclusive)
+	 */
+	protected int place (int item) {
+		return (int)(item * 0x9E3779B97F4A7C15L >>> shift);
+	}
+
+	/**
+	 * Returns the index of the key if already present, else {@code ~index} for the next empty index. The key must not be 0.
+	 */
+	private int locateKey (int key) {
+		int[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			int other = keyTable[i];
+			if (other == 0) return ~i; // Always negative; means empty space is available at i.
+			if (other == key) return i; // Same key was found.
+		}
+	}
+
+	/**
+	 * Returns true if the key was not already in the set.
+	 */
+	public boolean add (int key) {
+		if (key == 0) {
+			if (hasZeroValue) return false;
+			hasZeroValue = true;
+			size++;
+			return true;
+		}
+		int i = locateKey(key);
+		if (i >= 0) return false; // Existing key was found.
+		keyTable[~i] = key;
+		if (++size >= threshold) { resize(keyTable.length << 1); }
+		return true;
+	}
+
+	public void addAll (IntSet set) {
+		ensureCapacity(set.size);
+		if (set.hasZeroValue) add(0);
+		int[] keyTable = set.keyTable;
+		for (int i = 0, n = keyTable.length; i < n; i++) {
+			int key = keyTable[i];
+			if (key != 0) add(key);
+		}
+	}
+
+	/**
+	 * Skips checks for existing keys, doesn't increment size.
+	 */
+	private void addResize (int key) {
+		int[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			if (keyTable[i] == 0) {
+				keyTable[i] = key;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the key was removed.
+	 */
+	public boolean remove (int key) {
+		if (key == 0) {
+			if (!hasZeroValue) return false;
+			hasZeroValue = false;
+			size--;
+			return true;
+		}
+		int i = locateKey(key);
+		if (i < 0) return false;
+		int[] keyTable = this.keyTable;
+		int mask = this.mask, next = i + 1 & mask;
+		while ((key = keyTable[next]) != 0) {
+			int placement = place(key);
+			if ((next - placement & mask) > (i - placement & mask)) {
+				keyTable[i] = key;
+				i = next;
+			}
+			next = next + 1 & mask;
+		}
+		keyTable[i] = 0;
+		size--;
+		return true;
+	}
+
+	public boolean contains (int key) {
+		if (key == 0) return hasZeroValue;
+		return locateKey(key) >= 0;
+	}
+
+	/**
+	 * Returns the number of items in this set.
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Returns true if the set has one or more items.
+	 */
+	public boolean notEmpty () {
+		return size > 0;
+	}
+
+	/**
+	 * Returns true if the set is empty.
+	 */
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/**
+	 * Reduces the size of the backing arrays to be the specified capacity / loadFactor, or less. If the capacity is already less,
+	 * nothing is done. If the set contains more items than the specified capacity, the next highest power of two capacity is used
+	 * instead.
+	 */
+	public void shrink (int maximumCapacity) {
+		if (maximumCapacity < 0) { throw new IllegalArgumentException("maximumCapacity must be >= 0: " + maximumCapacity); }
+		int tableSize = ObjectSet.tableSize(Math.max(maximumCapacity, size), loadFactor);
+		if (keyTable.length > tableSize) { resize(tableSize); }
+	}
+
+	/**
+	 * Clears the set and reduces the size of the backing arrays to be the specified capacity / loadFactor, if they are larger.
+	 */
+	public void clear (int maximumCapacity) {
+		int tableSize = ObjectSet.tableSize(maximumCapacity, loadFactor);
+		if (keyTable.length <= tableSize) {
+			clear();
+			return;
+		}
+		size = 0;
+		hasZeroValue = false;
+		resize(tableSize);
+	}
+
+	/**
+	 * Clears the set, leaving the backing arrays at the current capacity.
+	 */
+	public void clear () {
+		if (size == 0) { return; }
+		size = 0;
+		hasZeroValue = false;
+		Arrays.fill(keyTable, 0);
+	}
+
+	/**
+	 * Increases the size of the backing array to accommodate the specified number of additional items / loadFactor. Useful before
+	 * adding many items to avoid multiple backing array resizes.
+	 */
+	public void ensureCapacity (int additionalCapacity) {
+		int tableSize = ObjectSet.tableSize(size + additionalCapacity, loadFactor);
+		if (keyTable.length < tableSize) { resize(tableSize); }
+	}
+
+	protected void resize (int newSize) {
+		int oldCapacity = keyTable.length;
+		threshold = (int)(newSize * loadFactor);
+		mask = newSize - 1;
+		shift = Long.numberOfLeadingZeros(mask);
+
+		int[] oldKeyTable = keyTable;
+
+		keyTable = new int[newSize];
+
+		if (size > 0) {
+			for (int i = 0; i < oldCapacity; i++) {
+				int key = oldKeyTable[i];
+				if (key != 0) { addResize(key); }
+			}
+		}
+	}
+
+	/**
+	 * Returns an iterator over the items in this set. The same iterator instance is returned each time this method is called;
+	 * use {@link IntSetIterator#IntSetIterator(IntSet)} to iterate nested over the same set.
+	 */
+	public IntSetIterator iterator () {
+		if (iterator1 == null || iterator2 == null) {
+			iterator1 = new IntSetIterator(this);
+			iterator2 = new IntSetIterator(this);
+		}
+		if (!iterator1.valid) {
+			iterator1.reset();
+			iterator1.valid = true;
+			iterator2.valid = false;
+			return iterator1;
+		}
+		iterator2.reset();
+		iterator2.valid = true;
+		iterator1.valid = false;
+		return iterator2;
+	}
+
+	@Override
+	public String toString () {
+		if (size == 0) return "{}";
+		StringBuilder buffer = new StringBuilder(32);
+		buffer.append('{');
+		boolean first = true;
+		if (hasZeroValue) {
+			buffer.append('0');
+			first = false;
+		}
+		for (int key : keyTable) {
+			if (key == 0) continue;
+			if (!first) buffer.append(", ");
+			buffer.append(key);
+			first = false;
+		}
+		return buffer.append('}').toString();
+	}
+
+	public static class IntSetIterator {
+		private static final int INDEX_ZERO = -2;
+
+		public boolean hasNext;
+
+		final IntSet set;
+		int nextIndex;
+		boolean valid = true;
+
+		public IntSetIterator (IntSet set) {
+			this.set = set;
+			reset();
+		}
+
+		public void reset () {
+			if (set.hasZeroValue) {
+				nextIndex = INDEX_ZERO;
+				hasNext = true;
+			} else {
+				nextIndex = -1;
+				findNextIndex();
+			}
+		}
+
+		void findNextIndex () {
+			int[] keyTable = set.keyTable;
+			for (int n = keyTable.length; ++nextIndex < n;) {
+				if (keyTable[nextIndex] != 0) {
+					hasNext = true;
+					return;
+				}
+			}
+			hasNext = false;
+		}
+
+		public boolean hasNext () {
+			if (!valid) { throw new RuntimeException("#iterator() cannot be used nested."); }
+			return hasNext;
+		}
+
+		public int next () {
+			if (!hasNext) { throw new NoSuchElementException(); }
+			if (!valid) { throw new RuntimeException("#iterator() cannot be used nested."); }
+			int key;
+			if (nextIndex == INDEX_ZERO) {
+				key = 0;
+				nextIndex = -1;
+			} else {
+				key = set.keyTable[nextIndex];
+			}
+			findNextIndex();
+			return key;
+		}
+	}
+}
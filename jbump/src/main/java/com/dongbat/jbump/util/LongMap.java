@@ -0,0 +1,413 @@
+/*******************************************************************************
+ * Copyright 2021 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.dongbat.jbump.util;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An unordered map where the keys are primitive longs and the values are objects. Null values are allowed. No allocation is
+ * done except when growing the table size; get, put and remove never create objects.
+ * <p>
+ * This uses linear probing with the backward shift algorithm for removal, the same as {@link ObjectSet}. Keys are mixed with
+ * a Fibonacci multiply before they are masked, so keys that only differ in their upper 32 bits (such as packed grid
+ * coordinates) still spread well over the table. The key 0 is stored outside the table, since 0 marks an empty slot.
+ * <p>
+ * The {@link #values()} collection and its iterators are reused, in the same way {@link ObjectSet#iterator()} reuses its
+ * iterators, so they cannot be used nested.
+ * @author Nathan Sweet
+ * @author Tommy Ettinger
+ */
+public class LongMap<V> {
+
+	protected int size;
+
+	protected long[] keyTable;
+	protected V[] valueTable;
+
+	protected V zeroValue;
+	protected boolean hasZeroValue;
+
+	protected float loadFactor;
+	protected int threshold;
+
+	protected int shift;
+
+	/**
+	 * A bitmask used to confine hashcodes to the size of the table. Must be all 1 bits in its low positions, ie a power of two
+	 * minus 1.
+	 */
+	protected int mask;
+
+	protected transient Values<V> values1;
+	protected transient Values<V> values2;
+
+	/**
+	 * Creates a new map with an initial capacity of 51 and a load factor of 0.7.
+	 */
+	public LongMap () {
+		this(51, 0.7f);
+	}
+
+	/**
+	 * Creates a new map with a load factor of 0.7.
+	 *
+	 * @param initialCapacity If not a power of two, it is increased to the next nearest power of two.
+	 */
+	public LongMap (int initialCapacity) {
+		this(initialCapacity, 0.7f);
+	}
+
+	/**
+	 * Creates a new map with the specified initial capacity and load factor. This map will hold initialCapacity items before
+	 * growing the backing table.
+	 *
+	 * @param initialCapacity If not a power of two, it is increased to the next nearest power of two.
+	 * @param loadFactor what fraction of the capacity can be filled before this has to resize; 0 &lt; loadFactor &lt;= 1
+	 */
+	public LongMap (int initialCapacity, float loadFactor) {
+		if (loadFactor <= 0f || loadFactor > 1f) { throw new IllegalArgumentException("loadFactor must be > 0 and <= 1: " + loadFactor); }
+		this.loadFactor = loadFactor;
+
+		int tableSize = ObjectSet.tableSize(initialCapacity, loadFactor);
+		threshold = (int)(tableSize * loadFactor);
+		mask = tableSize - 1;
+		shift = Long.numberOfLeadingZeros(mask);
+
+		keyTable = new long[tableSize];
+		valueTable = (V[])new Object[tableSize];
+	}
+
+	/**
+	 * Returns an index &gt;= 0 and &lt;= {@link #mask} for the specified {@code key}.
+	 * @param key any long except 0, which is handled separately
+	 * @return an index between 0 and {@link #mask} (both inclusive)
+	 */
+	protected int place (long key) {
+		return (int)(key * 0x9E3779B97F4A7C15L >>> shift);
+	}
+
+	/**
+	 * Returns the index of the key if already present, else {@code ~index} for the next empty index.
+	 * @param key any long except 0
+	 * @return a negative index if the key was not found, or the non-negative index of the existing key if found
+	 */
+	protected int locateKey (long key) {
+		long[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			long other = keyTable[i];
+			if (other == 0) return ~i; // Always negative; means empty space is available at i.
+			if (other == key) return i; // Same key was found.
+		}
+	}
+
+	/**
+	 * Returns the old value associated with the specified key, or null.
+	 */
+	public V put (long key, V value) {
+		if (key == 0) {
+			V oldValue = zeroValue;
+			zeroValue = value;
+			if (!hasZeroValue) {
+				hasZeroValue = true;
+				size++;
+			}
+			return oldValue;
+		}
+		int i = locateKey(key);
+		if (i >= 0) { // Existing key was found.
+			V oldValue = valueTable[i];
+			valueTable[i] = value;
+			return oldValue;
+		}
+		i = ~i; // Empty space was found.
+		keyTable[i] = key;
+		valueTable[i] = value;
+		if (++size >= threshold) { resize(keyTable.length << 1); }
+		return null;
+	}
+
+	/**
+	 * Skips checks for existing keys, doesn't increment size.
+	 */
+	private void putResize (long key, V value) {
+		long[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			if (keyTable[i] == 0) {
+				keyTable[i] = key;
+				valueTable[i] = value;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the value for the specified key, or null if the key is not in the map.
+	 */
+	public V get (long key) {
+		if (key == 0) { return hasZeroValue ? zeroValue : null; }
+		long[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			long other = keyTable[i];
+			if (other == key) return valueTable[i];
+			if (other == 0) return null;
+		}
+	}
+
+	/**
+	 * Returns the value for the specified key, or the default value if the key is not in the map.
+	 */
+	public V get (long key, V defaultValue) {
+		if (key == 0) { return hasZeroValue ? zeroValue : defaultValue; }
+		long[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			long other = keyTable[i];
+			if (other == key) return valueTable[i];
+			if (other == 0) return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the value for the removed key, or null if the key is not in the map.
+	 */
+	public V remove (long key) {
+		if (key == 0) {
+			if (!hasZeroValue) { return null; }
+			hasZeroValue = false;
+			V oldValue = zeroValue;
+			zeroValue = null;
+			size--;
+			return oldValue;
+		}
+		int i = locateKey(key);
+		if (i < 0) { return null; }
+		long[] keyTable = this.keyTable;
+		V[] valueTable = this.valueTable;
+		V oldValue = valueTable[i];
+		int mask = this.mask, next = i + 1 & mask;
+		while ((key = keyTable[next]) != 0) {
+			int placement = place(key);
+			if ((next - placement & mask) > (i - placement & mask)) {
+				keyTable[i] = key;
+				valueTable[i] = valueTable[next];
+				i = next;
+			}
+			next = next + 1 & mask;
+		}
+		keyTable[i] = 0;
+		valueTable[i] = null;
+		size--;
+		return oldValue;
+	}
+
+	public boolean containsKey (long key) {
+		if (key == 0) { return hasZeroValue; }
+		return locateKey(key) >= 0;
+	}
+
+	/**
+	 * Returns the number of key-value mappings in this map.
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Returns true if the map has one or more items.
+	 */
+	public boolean notEmpty () {
+		return size > 0;
+	}
+
+	/**
+	 * Returns true if the map is empty.
+	 */
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/**
+	 * Reduces the size of the backing arrays to be the specified capacity / loadFactor, or less. If the capacity is already less,
+	 * nothing is done. If the map contains more items than the specified capacity, the next highest power of two capacity is used
+	 * instead.
+	 */
+	public void shrink (int maximumCapacity) {
+		if (maximumCapacity < 0) { throw new IllegalArgumentException("maximumCapacity must be >= 0: " + maximumCapacity); }
+		int tableSize = ObjectSet.tableSize(Math.max(maximumCapacity, size), loadFactor);
+		if (keyTable.length > tableSize) { resize(tableSize); }
+	}
+
+	/**
+	 * Clears the map and reduces the size of the backing arrays to be the specified capacity / loadFactor, if they are larger.
+	 */
+	public void clear (int maximumCapacity) {
+		int tableSize = ObjectSet.tableSize(maximumCapacity, loadFactor);
+		if (keyTable.length <= tableSize) {
+			clear();
+			return;
+		}
+		size = 0;
+		hasZeroValue = false;
+		zeroValue = null;
+		resize(tableSize);
+	}
+
+	/**
+	 * Clears the map, leaving the backing arrays at the current capacity.
+	 */
+	public void clear () {
+		if (size == 0) { return; }
+		size = 0;
+		Arrays.fill(keyTable, 0);
+		Arrays.fill(valueTable, null);
+		hasZeroValue = false;
+		zeroValue = null;
+	}
+
+	/**
+	 * Increases the size of the backing array to accommodate the specified number of additional items / loadFactor. Useful before
+	 * adding many items to avoid multiple backing array resizes.
+	 */
+	public void ensureCapacity (int additionalCapacity) {
+		int tableSize = ObjectSet.tableSize(size + additionalCapacity, loadFactor);
+		if (keyTable.length < tableSize) { resize(tableSize); }
+	}
+
+	protected void resize (int newSize) {
+		int oldCapacity = keyTable.length;
+		threshold = (int)(newSize * loadFactor);
+		mask = newSize - 1;
+		shift = Long.numberOfLeadingZeros(mask);
+
+		long[] oldKeyTable = keyTable;
+		V[] oldValueTable = valueTable;
+
+		keyTable = new long[newSize];
+		valueTable = (V[])new Object[newSize];
+
+		if (size > 0) {
+			for (int i = 0; i < oldCapacity; i++) {
+				long key = oldKeyTable[i];
+				if (key != 0) { putResize(key, oldValueTable[i]); }
+			}
+		}
+	}
+
+	/**
+	 * Returns a Collection view of the values in this map. The collection and its iterator are reused; only one of the two
+	 * reused instances can be iterated at a time, so this cannot be used nested.
+	 */
+	public Values<V> values () {
+		if (values1 == null || values2 == null) {
+			values1 = new Values<V>(this);
+			values2 = new Values<V>(this);
+		}
+		if (!values1.iter.valid) {
+			values1.iter.reset();
+			values1.iter.valid = true;
+			values2.iter.valid = false;
+			return values1;
+		}
+		values2.iter.reset();
+		values2.iter.valid = true;
+		values1.iter.valid = false;
+		return values2;
+	}
+
+	public static class Values<V> extends AbstractCollection<V> {
+		final ValueIterator<V> iter;
+
+		public Values (LongMap<V> map) {
+			iter = new ValueIterator<V>(map);
+		}
+
+		@Override
+		public Iterator<V> iterator () {
+			iter.reset();
+			return iter;
+		}
+
+		@Override
+		public int size () {
+			return iter.map.size;
+		}
+	}
+
+	public static class ValueIterator<V> implements Iterator<V> {
+		static private final int INDEX_ILLEGAL = -2, INDEX_ZERO = -1;
+
+		public boolean hasNext;
+
+		final LongMap<V> map;
+		int nextIndex, currentIndex;
+		boolean valid = true;
+
+		public ValueIterator (LongMap<V> map) {
+			this.map = map;
+			reset();
+		}
+
+		public void reset () {
+			currentIndex = INDEX_ILLEGAL;
+			nextIndex = INDEX_ZERO;
+			if (map.hasZeroValue) {
+				hasNext = true;
+			} else {
+				findNextIndex();
+			}
+		}
+
+		void findNextIndex () {
+			long[] keyTable = map.keyTable;
+			for (int n = keyTable.length; ++nextIndex < n; ) {
+				if (keyTable[nextIndex] != 0) {
+					hasNext = true;
+					return;
+				}
+			}
+			hasNext = false;
+		}
+
+		@Override
+		public boolean hasNext () {
+			if (!valid) { throw new RuntimeException("#values() cannot be used nested."); }
+			return hasNext;
+		}
+
+		@Override
+		public V next () {
+			if (!hasNext) { throw new NoSuchElementException(); }
+			if (!valid) { throw new RuntimeException("#values() cannot be used nested."); }
+			V value;
+			if (nextIndex == INDEX_ZERO) {
+				value = map.zeroValue;
+			} else {
+				value = map.valueTable[nextIndex];
+			}
+			currentIndex = nextIndex;
+			findNextIndex();
+			return value;
+		}
+
+		@Override
+		public void remove () {
+			throw new UnsupportedOperationException("remove() is not supported by LongMap's value iterator.");
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright 2021 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.dongbat.jbump.util;
+
+import java.util.Arrays;
+
+/**
+ * An unordered map where the keys are objects and the values are primitive ints. Null keys are not allowed. No allocation
+ * is done except when growing the table size, so unlike a {@code HashMap<K, Integer>}, values are never boxed.
+ * <p>
+ * This uses linear probing with the backward shift algorithm for removal, the same as {@link ObjectSet}, and calls
+ * {@link Object#hashCode()} and {@link Object#equals(Object)} on keys. Both are cheap for {@link com.dongbat.jbump.Item},
+ * which caches its identity hash code.
+ * @author Nathan Sweet
+ * @author Tommy Ettinger
+ */
+public class ObjectIntMap<K> {
+
+	protected int size;
+
+	protected K[] keyTable;
+	protected int[] valueTable;
+
+	protected float loadFactor;
+	protected int threshold;
+
+	protected int shift;
+
+	/**
+	 * A bitmask used to confine hashcodes to the size of the table. Must be all 1 bits in its low positions, ie a power of two
+	 * minus 1.
+	 */
+	protected int mask;
+
+	/**
+	 * Creates a new map with an initial capacity of 51 and a load factor of 0.7.
+	 */
+	public ObjectIntMap () {
+		this(51, 0.7f);
+	}
+
+	/**
+	 * Creates a new map with a load factor of 0.7.
+	 *
+	 * @param initialCapacity If not a power of two, it is increased to the next nearest power of two.
+	 */
+	public ObjectIntMap (int initialCapacity) {
+		this(initialCapacity, 0.7f);
+	}
+
+	/**
+	 * Creates a new map with the specified initial capacity and load factor. This map will hold initialCapacity items before
+	 * growing the backing table.
+	 *
+	 * @param initialCapacity If not a power of two, it is increased to the next nearest power of two.
+	 * @param loadFactor what fraction of the capacity can be filled before this has to resize; 0 &lt; loadFactor &lt;= 1
+	 */
+	public ObjectIntMap (int initialCapacity, float loadFactor) {
+		if (loadFactor <= 0f || loadFactor > 1f) { throw new IllegalArgumentException("loadFactor must be > 0 and <= 1: " + loadFactor); }
+		this.loadFactor = loadFactor;
+
+		int tableSize = ObjectSet.tableSize(initialCapacity, loadFactor);
+		threshold = (int)(tableSize * loadFactor);
+		mask = tableSize - 1;
+		shift = Long.numberOfLeadingZeros(mask);
+
+		keyTable = (K[])new Object[tableSize];
+		valueTable = new int[tableSize];
+	}
+
+	/**
+	 * Returns an index &gt;= 0 and &lt;= {@link #mask} for the specified {@code item}.
+	 * @param item any non-null Object
+	 * @return an index between 0 and {@link #mask} (both inclusive)
+	 */
+	protected int place (Object item) {
+		return (int)(item.hashCode() * 0x9E3779B97F4A7C15L >>> shift);
+	}
+
+	/**
+	 * Returns the index of the key if already present, else {@code ~index} for the next empty index.
+	 * @param key a non-null K key
+	 * @return a negative index if the key was not found, or the non-negative index of the existing key if found
+	 */
+	protected int locateKey (Object key) {
+		K[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			K other = keyTable[i];
+			if (other == null) return ~i; // Always negative; means empty space is available at i.
+			if (key.equals(other)) return i; // Same key was found.
+		}
+	}
+
+	/**
+	 * Returns the old value associated with the specified key, or the specified default value.
+	 */
+	public int put (K key, int value, int defaultValue) {
+		int i = locateKey(key);
+		if (i >= 0) { // Existing key was found.
+			int oldValue = valueTable[i];
+			valueTable[i] = value;
+			return oldValue;
+		}
+		i = ~i; // Empty space was found.
+		keyTable[i] = key;
+		valueTable[i] = value;
+		if (++size >= threshold) { resize(keyTable.length << 1); }
+		return defaultValue;
+	}
+
+	public void put (K key, int value) {
+		put(key, value, 0);
+	}
+
+	/**
+	 * Skips checks for existing keys, doesn't increment size.
+	 */
+	private void putResize (K key, int value) {
+		K[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			if (keyTable[i] == null) {
+				keyTable[i] = key;
+				valueTable[i] = value;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the value for the specified key, or the default value if the key is not in the map.
+	 */
+	public int get (Object key, int defaultValue) {
+		K[] keyTable = this.keyTable;
+		for (int i = place(key);; i = i + 1 & mask) {
+			K other = keyTable[i];
+			if (other == null) return defaultValue;
+			if (key.equals(other)) return valueTable[i];
+		}
+	}
+
+	/**
+	 * Returns the value for the removed key, or the default value if the key is not in the map.
+	 */
+	public int remove (Object key, int defaultValue) {
+		int i = locateKey(key);
+		if (i < 0) { return defaultValue; }
+		K[] keyTable = this.keyTable;
+		int[] valueTable = this.valueTable;
+		int oldValue = valueTable[i];
+		int mask = this.mask, next = i + 1 & mask;
+		while ((key = keyTable[next]) != null) {
+			int placement = place(key);
+			if ((next - placement & mask) > (i - placement & mask)) {
+				keyTable[i] = (K)key;
+				valueTable[i] = valueTable[next];
+				i = next;
+			}
+			next = next + 1 & mask;
+		}
+		keyTable[i] = null;
+		size--;
+		return oldValue;
+	}
+
+	public boolean containsKey (Object key) {
+		return locateKey(key) >= 0;
+	}
+
+	/**
+	 * Returns the number of key-value mappings in this map.
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Returns true if the map has one or more items.
+	 */
+	public boolean notEmpty () {
+		return size > 0;
+	}
+
+	/**
+	 * Returns true if the map is empty.
+	 */
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/**
+	 * Reduces the size of the backing arrays to be the specified capacity / loadFactor, or less. If the capacity is already less,
+	 * nothing is done. If the map contains more items than the specified capacity, the next highest power of two capacity is used
+	 * instead.
+	 */
+	public void shrink (int maximumCapacity) {
+		if (maximumCapacity < 0) { throw new IllegalArgumentException("maximumCapacity must be >= 0: " + maximumCapacity); }
+		int tableSize = ObjectSet.tableSize(Math.max(maximumCapacity, size), loadFactor);
+		if (keyTable.length > tableSize) { resize(tableSize); }
+	}
+
+	/**
+	 * Clears the map and reduces the size of the backing arrays to be the specified capacity / loadFactor, if they are larger.
+	 */
+	public void clear (int maximumCapacity) {
+		int tableSize = ObjectSet.tableSize(maximumCapacity, loadFactor);
+		if (keyTable.length <= tableSize) {
+			clear();
+			return;
+		}
+		size = 0;
+		resize(tableSize);
+	}
+
+	/**
+	 * Clears the map, leaving the backing arrays at the current capacity.
+	 */
+	public void clear () {
+		if (size == 0) { return; }
+		size = 0;
+		Arrays.fill(keyTable, null);
+	}
+
+	/**
+	 * Increases the size of the backing array to accommodate the specified number of additional items / loadFactor. Useful before
+	 * adding many items to avoid multiple backing array resizes.
+	 */
+	public void ensureCapacity (int additionalCapacity) {
+		int tableSize = ObjectSet.tableSize(size + additionalCapacity, loadFactor);
+		if (keyTable.length < tableSize) { resize(tableSize); }
+	}
+
+	protected void resize (int newSize) {
+		int oldCapacity = keyTable.length;
+		threshold = (int)(newSize * loadFactor);
+		mask = newSize - 1;
+		shift = Long.numberOfLeadingZeros(mask);
+
+		K[] oldKeyTable = keyTable;
+		int[] oldValueTable = valueTable;
+
+		keyTable = (K[])new Object[newSize];
+		valueTable = new int[newSize];
+
+		if (size > 0) {
+			for (int i = 0; i < oldCapacity; i++) {
+				K key = oldKeyTable[i];
+				if (key != null) { putResize(key, oldValueTable[i]); }
+			}
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright 2021 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.dongbat.jbump.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An unordered set of primitive ints meant for sets that are usually tiny. Up to {@link #INLINE_LIMIT} items are kept
+ * in a plain array, which is smaller than any hash table and faster to search when it only holds a few items. Adding
+ * past that limit moves the items into an {@link IntSet}; removing items until only half the limit is left moves them
+ * back, so a set that hovers around the limit doesn't flip back and forth on every change.
+ * <p>
+ * Like IntSet, {@link #iterator()} reuses one of two iterators, so it can't be used nested over the same set.
+ */
+public class SmallIntSet {
+	/**
+	 * The most items this keeps in its array before switching to an {@link IntSet}.
+	 */
+	public static final int INLINE_LIMIT = 8;
+
+	protected int size;
+	/**
+	 * Holds the items while there are at most {@link #INLINE_LIMIT} of them; null while {@link #set} is in use.
+	 */
+	protected int[] inline;
+	/**
+	 * Holds the items once there are more than {@link #INLINE_LIMIT}; null otherwise.
+	 */
+	protected IntSet set;
+	/**
+	 * Where an IntSet is taken from when this switches to one, and given back to when it switches back; null to
+	 * allocate a new IntSet each time. The array is kept while the IntSet is in use, so switching back doesn't allocate.
+	 */
+	private final ArrayList<IntSet> setPool;
+	private int[] spareInline;
+	protected transient SmallIntSetIterator iterator1;
+	protected transient SmallIntSetIterator iterator2;
+
+	/**
+	 * Creates a new set with room for two items before it grows.
+	 */
+	public SmallIntSet () {
+		this(null);
+	}
+
+	/**
+	 * Creates a new set with room for two items before it grows, which takes the IntSets it switches to from setPool.
+	 * Many sets can share one pool, as long as they are all used from one thread at a time; then a set that switches
+	 * only allocates if every IntSet that was pooled is in use.
+	 */
+	public SmallIntSet (ArrayList<IntSet> setPool) {
+		inline = new int[2];
+		this.setPool = setPool;
+	}
+
+	/**
+	 * Returns true if the key was not already in the set.
+	 */
+	public boolean add (int key) {
+		if (set != null) {
+			if (!set.add(key)) return false;
+			size++;
+			return true;
+		}
+		int[] inline = this.inline;
+		for (int i = 0; i < size; i++) {
+			if (inline[i] == key) return false;
+		}
+		if (size == INLINE_LIMIT) {
+			IntSet set = setPool == null || setPool.isEmpty() ? new IntSet(INLINE_LIMIT << 1) : setPool.remove(setPool.size() - 1);
+			for (int i = 0; i < size; i++) {
+				set.add(inline[i]);
+			}
+			set.add(key);
+			this.set = set;
+			spareInline = inline;
+			this.inline = null;
+			size++;
+			return true;
+		}
+		if (size == inline.length) {
+			this.inline = inline = Arrays.copyOf(inline, Math.min(size << 1, INLINE_LIMIT));
+		}
+		inline[size++] = key;
+		return true;
+	}
+
+	/**
+	 * Returns true if the key was removed.
+	 */
+	public boolean remove (int key) {
+		if (set != null) {
+			if (!set.remove(key)) return false;
+			if (--size <= INLINE_LIMIT >> 1) { demote(); }
+			return true;
+		}
+		int[] inline = this.inline;
+		for (int i = 0; i < size; i++) {
+			if (inline[i] == key) {
+				inline[i] = inline[--size];
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void demote () {
+		int[] inline = spareInline != null ? spareInline : new int[INLINE_LIMIT];
+		int n = 0;
+		if (set.hasZeroValue) inline[n++] = 0;
+		int[] keyTable = set.keyTable;
+		for (int i = 0; i < keyTable.length; i++) {
+			if (keyTable[i] != 0) inline[n++] = keyTable[i];
+		}
+		this.inline = inline;
+		spareInline = null;
+		releaseSet();
+	}
+
+	private void releaseSet () {
+		if (setPool != null) {
+			set.clear();
+			setPool.add(set);
+		}
+		set = null;
+	}
+
+	public boolean contains (int key) {
+		if (set != null) return set.contains(key);
+		int[] inline = this.inline;
+		for (int i = 0; i < size; i++) {
+			if (inline[i] == key) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds every item in this set to result, which must only hold ints &gt;= 0. This reads the backing arrays directly
+	 * instead of using an iterator.
+	 */
+	public void addTo (UniqueIntArray result) {
+		if (set != null) {
+			if (set.hasZeroValue) result.add(0);
+			int[] keyTable = set.keyTable;
+			for (int i = 0, n = keyTable.length; i < n; i++) {
+				if (keyTable[i] != 0) result.add(keyTable[i]);
+			}
+			return;
+		}
+		int[] inline = this.inline;
+		for (int i = 0; i < size; i++) {
+			result.add(inline[i]);
+		}
+	}
+
+	/**
+	 * Returns the number of items in this set.
+	 */
+	public int size () {
+		return size;
+	}
+
+	/**
+	 * Returns true if the set has one or more items.
+	 */
+	public boolean notEmpty () {
+		return size > 0;
+	}
+
+	/**
+	 * Returns true if the set is empty.
+	 */
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/**
+	 * Reduces the backing storage to fit the current items.
+	 */
+	public void shrink () {
+		spareInline = null;
+		if (set != null) {
+			set.shrink(size);
+		} else if (inline.length > size) {
+			inline = Arrays.copyOf(inline, Math.max(size, 1));
+		}
+	}
+
+	/**
+	 * Clears the set, switching back to the array if the items had been moved into an {@link IntSet}.
+	 */
+	public void clear () {
+		size = 0;
+		if (set != null) {
+			releaseSet();
+			inline = spareInline != null ? spareInline : new int[2];
+			spareInline = null;
+		}
+	}
+
+	/**
+	 * Returns an iterator over the items in this set. The same iterator instance is returned each time this method is called;
+	 * use {@link SmallIntSetIterator#SmallIntSetIterator(SmallIntSet)} to iterate nested over the same set.
+	 */
+	public SmallIntSetIterator iterator () {
+		if (iterator1 == null || iterator2 == null) {
+			iterator1 = new SmallIntSetIterator(this);
+			iterator2 = new SmallIntSetIterator(this);
+		}
+		if (!iterator1.valid) {
+			iterator1.reset();
+			iterator1.valid = true;
+			iterator2.valid = false;
+			return iterator1;
+		}
+		iterator2.reset();
+		iterator2.valid = true;
+		iterator1.valid = false;
+		return iterator2;
+	}
+
+	@Override
+	public String toString () {
+		if (set != null) return set.toString();
+		StringBuilder buffer = new StringBuilder(32);
+		buffer.append('{');
+		for (int i = 0; i < size; i++) {
+			if (i > 0) buffer.append(", ");
+			buffer.append(inline[i]);
+		}
+		return buffer.append('}').toString();
+	}
+
+	public static class SmallIntSetIterator {
+		private static final int INDEX_ZERO = -2;
+
+		public boolean hasNext;
+
+		final SmallIntSet set;
+		int nextIndex;
+		boolean valid = true;
+
+		public SmallIntSetIterator (SmallIntSet set) {
+			this.set = set;
+			reset();
+		}
+
+		public void reset () {
+			if (set.set != null && set.set.hasZeroValue) {
+				nextIndex = INDEX_ZERO;
+				hasNext = true;
+			} else {
+				nextIndex = -1;
+				findNextIndex();
+			}
+		}
+
+		void findNextIndex () {
+			if (set.set == null) {
+				hasNext = ++nextIndex < set.size;
+				return;
+			}
+			int[] keyTable = set.set.keyTable;
+			for (int n = keyTable.length; ++nextIndex < n;) {
+				if (keyTable[nextIndex] != 0) {
+					hasNext = true;
+					return;
+				}
+			}
+			hasNext = false;
+		}
+
+		public boolean hasNext () {
+			if (!valid) { throw new RuntimeException("#iterator() cannot be used nested."); }
+			return hasNext;
+		}
+
+		public int next () {
+			if (!hasNext) { throw new NoSuchElementException(); }
+			if (!valid) { throw new RuntimeException("#iterator() cannot be used nested."); }
+			int key;
+			if (nextIndex == INDEX_ZERO) {
+				key = 0;
+				nextIndex = -1;
+			} else if (set.set == null) {
+				key = set.inline[nextIndex];
+			} else {
+				key = set.set.keyTable[nextIndex];
+			}
+			findNextIndex();
+			return key;
+		}
+	}
+}
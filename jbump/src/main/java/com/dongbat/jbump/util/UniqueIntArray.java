@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2021 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.dongbat.jbump.util;
+
+import java.util.Arrays;
+
+/**
+ * A resizable, ordered array of non-negative ints that ignores values it already holds. It is meant to collect small,
+ * dense ints, such as indexes, that may be found many times over.
+ * <p>
+ * Instead of hashing, every value has a stamp in an array indexed by the value itself, holding the epoch in which it
+ * was last added. {@link #clear()} just starts a new epoch, so clearing costs nothing no matter how many values were
+ * added, and checking for a duplicate is a single array read. The stamp array grows to fit the largest value ever
+ * added, so values should stay small.
+ */
+public class UniqueIntArray {
+	public int[] items;
+	public int size;
+
+	private int[] stamps;
+	private int epoch = 1;
+
+	/**
+	 * Creates an array with room for 16 values, and stamps for the values 0 to 63.
+	 */
+	public UniqueIntArray () {
+		this(16, 64);
+	}
+
+	/**
+	 * @param capacity how many values this can hold before growing
+	 * @param valueLimit one more than the largest value this can take before growing its stamps
+	 */
+	public UniqueIntArray (int capacity, int valueLimit) {
+		items = new int[Math.max(capacity, 1)];
+		stamps = new int[Math.max(valueLimit, 1)];
+	}
+
+	/**
+	 * Adds value if it hasn't been added since the last {@link #clear()}.
+	 * @param value an int &gt;= 0
+	 * @return true if value was added, false if it was already present
+	 */
+	public boolean add (int value) {
+		int[] stamps = this.stamps;
+		if (value >= stamps.length) {
+			this.stamps = stamps = Arrays.copyOf(stamps, Math.max(value + 1, stamps.length << 1));
+		}
+		if (stamps[value] == epoch) return false;
+		stamps[value] = epoch;
+		int[] items = this.items;
+		if (size == items.length) this.items = items = Arrays.copyOf(items, size << 1);
+		items[size++] = value;
+		return true;
+	}
+
+	public boolean contains (int value) {
+		return value >= 0 && value < stamps.length && stamps[value] == epoch;
+	}
+
+	public int get (int index) {
+		if (index >= size) throw new IndexOutOfBoundsException("index can't be >= size: " + index + " >= " + size);
+		return items[index];
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/**
+	 * Removes every value by starting a new epoch. The stamps are only rewritten once every 2^32 calls, when the epoch wraps
+	 * around.
+	 */
+	public void clear () {
+		size = 0;
+		if (++epoch == 0) {
+			Arrays.fill(stamps, 0);
+			epoch = 1;
+		}
+	}
+
+	@Override
+	public String toString () {
+		if (size == 0) return "[]";
+		StringBuilder buffer = new StringBuilder(32);
+		buffer.append('[');
+		buffer.append(items[0]);
+		for (int i = 1; i < size; i++) {
+			buffer.append(", ");
+			buffer.append(items[i]);
+		}
+		buffer.append(']');
+		return buffer.toString();
+	}
+}
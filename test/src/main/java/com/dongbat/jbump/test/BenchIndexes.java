@@ -0,0 +1,141 @@
+package com.dongbat.jbump.test;
+
+import com.dongbat.jbump.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares the spatial indexes a {@link World} can use on the same scenes. Each frame, every item is put somewhere new
+ * with {@link World#update(Item, float, float)} and then moved on with
+ * {@link World#move(Item, float, float, CollisionFilter)}, and a batch each of rectangle, point, segment and ray
+ * queries runs; each of these passes is timed on its own. Run it with a few warmup rounds before trusting the numbers;
+ * the first ones mostly measure the JIT.
+ * <br>
+ * The "uniform" scene has items all about the size of a cell, which is what the grid is made for. The "mixed" scene
+ * has a few huge items and many tiny, fast ones among medium ones, where the grid has to insert the huge items into many
+ * cells and the tree doesn't.
+ */
+public class BenchIndexes {
+    static final int ITEMS = 4000;
+    static final int FRAMES = 200;
+    static final int ROUNDS = 5;
+    static final int QUERIES = 20;
+    static final float SIZE = 4000;
+    static final String[] PASSES = {"update", "move", "rect", "point", "segment", "ray"};
+    static final int UPDATE = 0, MOVE = 1, RECT = 2, POINT = 3, SEGMENT = 4, RAY = 5;
+
+    static final Response[] RESPONSES = {Response.slide, Response.cross, Response.touch, Response.bounce};
+
+    static final CollisionFilter FILTER = new CollisionFilter() {
+        @Override
+        public Response filter(Item item, Item other) {
+            return RESPONSES[(Integer) item.userData % RESPONSES.length];
+        }
+    };
+
+    static long checksum;
+
+    public static void main(String[] args) {
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("round " + round);
+            for (int mixed = 0; mixed <= 1; mixed++) {
+                String scene = mixed == 1 ? "mixed" : "uniform";
+                report(scene, "grid", run(new GridIndex(64f), mixed == 1));
+                report(scene, "tree", run(new DynamicTreeIndex(), mixed == 1));
+                report(scene, "hgrid", run(new HierarchicalGridIndex(64f), mixed == 1));
+            }
+        }
+        System.out.println("checksum " + checksum);
+    }
+
+    static void report(String scene, String index, long[] nanos) {
+        StringBuilder line = new StringBuilder("  " + scene + " " + index + ":");
+        for (int pass = 0; pass < PASSES.length; pass++) {
+            line.append(' ').append(PASSES[pass]).append(' ').append(nanos[pass] / FRAMES / 1000).append(" us");
+        }
+        System.out.println(line.append(" per frame"));
+    }
+
+    static long[] run(SpatialIndex index, boolean mixed) {
+        Random random = new Random(42);
+        World<Integer> world = new World<Integer>(index);
+        ArrayList<Item<Integer>> items = new ArrayList<Item<Integer>>(ITEMS);
+        float[] speeds = new float[ITEMS * 2];
+        for (int i = 0; i < ITEMS; i++) {
+            float size;
+            float speed;
+            if (!mixed) {
+                size = 32 + random.nextFloat() * 32;
+                speed = 4;
+            } else if (i % 40 == 0) {
+                size = 400 + random.nextFloat() * 600;
+                speed = 1;
+            } else if (i % 2 == 0) {
+                size = 2 + random.nextFloat() * 4;
+                speed = 16;
+            } else {
+                size = 16 + random.nextFloat() * 48;
+                speed = 4;
+            }
+            Item<Integer> item = world.add(new Item<Integer>(i), random.nextFloat() * SIZE, random.nextFloat() * SIZE, size, size);
+            items.add(item);
+            speeds[i * 2] = (random.nextFloat() * 2 - 1) * speed;
+            speeds[i * 2 + 1] = (random.nextFloat() * 2 - 1) * speed;
+        }
+
+        ArrayList<Item> queryItems = new ArrayList<Item>();
+        ArrayList<ItemInfo> infos = new ArrayList<ItemInfo>();
+        Rect rect = new Rect();
+        long[] nanos = new long[PASSES.length];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITEMS; i++) {
+                Item<Integer> item = items.get(i);
+                world.getRect(item, rect);
+                world.update(item, rect.x + speeds[i * 2], rect.y + speeds[i * 2 + 1]);
+            }
+            long time = System.nanoTime();
+            nanos[UPDATE] += time - start;
+            start = time;
+            for (int i = 0; i < ITEMS; i++) {
+                Item<Integer> item = items.get(i);
+                world.getRect(item, rect);
+                float x = rect.x + speeds[i * 2], y = rect.y + speeds[i * 2 + 1];
+                if (x < 0 || x > SIZE) {
+                    speeds[i * 2] = -speeds[i * 2];
+                }
+                if (y < 0 || y > SIZE) {
+                    speeds[i * 2 + 1] = -speeds[i * 2 + 1];
+                }
+                checksum += world.move(item, x, y, FILTER).projectedCollisions.size();
+            }
+            time = System.nanoTime();
+            nanos[MOVE] += time - start;
+            start = time;
+            for (int q = 0; q < QUERIES; q++) {
+                checksum += world.queryRect(random.nextFloat() * SIZE, random.nextFloat() * SIZE, 200, 200, CollisionFilter.defaultFilter, queryItems).size();
+            }
+            time = System.nanoTime();
+            nanos[RECT] += time - start;
+            start = time;
+            for (int q = 0; q < QUERIES; q++) {
+                checksum += world.queryPoint(random.nextFloat() * SIZE, random.nextFloat() * SIZE, CollisionFilter.defaultFilter, queryItems).size();
+            }
+            time = System.nanoTime();
+            nanos[POINT] += time - start;
+            start = time;
+            for (int q = 0; q < QUERIES; q++) {
+                checksum += world.querySegmentWithCoords(random.nextFloat() * SIZE, random.nextFloat() * SIZE, random.nextFloat() * SIZE, random.nextFloat() * SIZE, CollisionFilter.defaultFilter, infos).size();
+            }
+            time = System.nanoTime();
+            nanos[SEGMENT] += time - start;
+            start = time;
+            for (int q = 0; q < QUERIES; q++) {
+                checksum += world.queryRay(random.nextFloat() * SIZE, random.nextFloat() * SIZE, random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1, CollisionFilter.defaultFilter, queryItems).size();
+            }
+            nanos[RAY] += System.nanoTime() - start;
+        }
+        return nanos;
+    }
+}
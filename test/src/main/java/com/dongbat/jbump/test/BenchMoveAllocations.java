@@ -0,0 +1,88 @@
+package com.dongbat.jbump.test;
+
+import com.dongbat.jbump.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks that {@link World#check} and {@link World#move} allocate nothing once the World has warmed up. A crowd of
+ * agents wanders around a field of walls with each of the built-in responses, then is put back where it started and
+ * takes the same walk again, so the grid only sees the cells and crowds it has seen before. The bytes the thread
+ * allocated during each walk are read from the JVM. The first few walks still fill the pools of the grid, since its
+ * cells are reused in a different order each time, but a walk that allocates nothing has to come soon after; if none
+ * does, this fails. Needs a JVM whose thread bean can count allocated bytes, like HotSpot.
+ */
+public class BenchMoveAllocations {
+    static final int AGENTS = 2000;
+    static final int WALLS = 400;
+    static final int FRAMES = 200;
+    static final int WALKS = 20;
+    static final float SIZE = 2000;
+    static final float STEP = 12;
+
+    static final Response[] RESPONSES = {Response.slide, Response.touch, Response.cross, Response.bounce};
+
+    static final CollisionFilter FILTER = new CollisionFilter() {
+        @Override
+        public Response filter(Item item, Item other) {
+            return RESPONSES[((Integer) item.userData & Integer.MAX_VALUE) % RESPONSES.length];
+        }
+    };
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Random random = new Random(42);
+        World<Integer> world = new World<Integer>(64f);
+        for (int i = 0; i < WALLS; i++) {
+            boolean across = random.nextBoolean();
+            world.add(new Item<Integer>(-1 - i), random.nextFloat() * SIZE, random.nextFloat() * SIZE, across ? 120 : 12, across ? 12 : 120);
+        }
+        Item[] agents = new Item[AGENTS];
+        float[] starts = new float[AGENTS * 2];
+        for (int i = 0; i < AGENTS; i++) {
+            starts[i * 2] = random.nextFloat() * SIZE;
+            starts[i * 2 + 1] = random.nextFloat() * SIZE;
+            agents[i] = world.add(new Item<Integer>(i), starts[i * 2], starts[i * 2 + 1], 16, 16);
+        }
+        float[] goals = new float[FRAMES * AGENTS * 2];
+        for (int i = 0; i < goals.length; i++) {
+            goals[i] = (random.nextFloat() * 2 - 1) * STEP;
+        }
+
+        int expected = -1;
+        for (int walk = 0; walk < WALKS; walk++) {
+            for (int i = 0; i < AGENTS; i++) {
+                world.update(agents[i], starts[i * 2], starts[i * 2 + 1]);
+            }
+            long before = threads.getThreadAllocatedBytes(thread);
+            int collisions = frames(world, agents, goals);
+            long bytes = threads.getThreadAllocatedBytes(thread) - before;
+            System.out.println("walk " + walk + ": " + FRAMES * AGENTS * 2 + " checks and moves, " + collisions + " collisions, " + bytes + " bytes allocated");
+            if (expected != -1 && collisions != expected) {
+                throw new IllegalStateException("walk " + walk + " found " + collisions + " collisions instead of " + expected);
+            }
+            expected = collisions;
+            if (bytes == 0) {
+                return;
+            }
+        }
+        throw new IllegalStateException("check and move still allocated after " + WALKS + " walks");
+    }
+
+    static int frames(World<Integer> world, Item[] agents, float[] goals) {
+        int collisions = 0;
+        Rect rect = new Rect();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int i = 0; i < AGENTS; i++) {
+                int j = (frame * AGENTS + i) * 2;
+                world.getRect(agents[i], rect);
+                float goalX = rect.x + goals[j], goalY = rect.y + goals[j + 1];
+                collisions += world.check(agents[i], goalX, goalY, FILTER).projectedCollisions.size();
+                collisions += world.move(agents[i], goalX, goalY, FILTER).projectedCollisions.size();
+            }
+        }
+        return collisions;
+    }
+}
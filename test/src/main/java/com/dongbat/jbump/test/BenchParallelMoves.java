@@ -0,0 +1,116 @@
+package com.dongbat.jbump.test;
+
+import com.dongbat.jbump.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how {@link ParallelMoves} scales with the number of threads, on a crowd of agents that wander around a field
+ * of walls, once spread out and once packed so tightly that their swept rects chain into a few big islands. Every pool
+ * size moves its own copies of the crowd with the same goals as {@link World#moveAll} moves the baseline copy, with
+ * both {@link ParallelMoves#moveAll} and {@link ParallelMoves#moveAllOptimistic}, and each must end every frame with the
+ * same positions and collisions; the time of the baseline is printed first.
+ */
+public class BenchParallelMoves {
+    static final int AGENTS = 10000;
+    static final int WALLS = 2000;
+    static final int FRAMES = 50;
+    static final float SPREAD_SIZE = 8000;
+    static final float PACKED_SIZE = 2500;
+    static final float STEP = 12;
+
+    static final CollisionFilter FILTER = new CollisionFilter() {
+        @Override
+        public Response filter(Item item, Item other) {
+            return (Integer) other.userData < 0 ? Response.slide : Response.cross;
+        }
+    };
+
+    public static void main(String[] args) {
+        run("spread out", SPREAD_SIZE);
+        run("packed", PACKED_SIZE);
+    }
+
+    static void run(String name, float size) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads * 2 > cores && threads < cores ? cores : threads * 2) {
+            System.out.println(name + ", " + threads + " threads");
+            Crowd expected = new Crowd(size), islands = new Crowd(size), optimistic = new Crowd(size);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            ParallelMoves<Integer> islandMoves = new ParallelMoves<Integer>(islands.world, pool);
+            ParallelMoves<Integer> optimisticMoves = new ParallelMoves<Integer>(optimistic.world, pool);
+            Random random = new Random(7);
+            float[] goalXs = new float[AGENTS], goalYs = new float[AGENTS];
+            MoveResult expectedResult = new MoveResult(), actualResult = new MoveResult();
+            long baseline = 0, islandTime = 0, optimisticTime = 0;
+            Rect rect = new Rect();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                for (int i = 0; i < AGENTS; i++) {
+                    expected.world.getRect(expected.agents[i], rect);
+                    goalXs[i] = rect.x + (random.nextFloat() * 2 - 1) * STEP;
+                    goalYs[i] = rect.y + (random.nextFloat() * 2 - 1) * STEP;
+                }
+                long start = System.nanoTime();
+                expected.world.moveAll(expected.agents, goalXs, goalYs, AGENTS, FILTER, expectedResult);
+                baseline += System.nanoTime() - start;
+                start = System.nanoTime();
+                islandMoves.moveAll(islands.agents, goalXs, goalYs, AGENTS, FILTER, actualResult);
+                islandTime += System.nanoTime() - start;
+                if (!same(expectedResult, actualResult)) {
+                    throw new IllegalStateException("moveAll on " + threads + " threads moved differently in frame " + frame);
+                }
+                start = System.nanoTime();
+                optimisticMoves.moveAllOptimistic(optimistic.agents, goalXs, goalYs, AGENTS, FILTER, actualResult);
+                optimisticTime += System.nanoTime() - start;
+                if (!same(expectedResult, actualResult)) {
+                    throw new IllegalStateException("moveAllOptimistic on " + threads + " threads moved differently in frame " + frame);
+                }
+            }
+            pool.shutdown();
+            report("World", baseline, baseline);
+            report("moveAll", islandTime, baseline);
+            report("moveAllOptimistic", optimisticTime, baseline);
+        }
+    }
+
+    static void report(String name, long nanos, long baseline) {
+        System.out.println("  " + name + ": " + nanos / FRAMES / 1000 + " us/frame, " + Math.round(baseline * 100.0 / nanos) / 100.0 + "x");
+    }
+
+    static boolean same(MoveResult expected, MoveResult actual) {
+        for (int i = 0; i < AGENTS; i++) {
+            if (expected.xs[i] != actual.xs[i] || expected.ys[i] != actual.ys[i] || expected.size(i) != actual.size(i)) {
+                return false;
+            }
+            for (int c = 0; c < expected.size(i); c++) {
+                Collision collision = expected.get(i, c);
+                float ti = collision.ti;
+                Object other = collision.other.userData;
+                if (ti != actual.get(i, c).ti || !other.equals(actual.get(i, c).other.userData)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The same agents and walls every time, from a fixed seed.
+     */
+    static class Crowd {
+        final World<Integer> world = new World<Integer>(64f);
+        final Item[] agents = new Item[AGENTS];
+
+        Crowd(float size) {
+            Random random = new Random(42);
+            for (int i = 0; i < WALLS; i++) {
+                boolean across = random.nextBoolean();
+                world.add(new Item<Integer>(-1 - i), random.nextFloat() * size, random.nextFloat() * size, across ? 120 : 12, across ? 12 : 120);
+            }
+            for (int i = 0; i < AGENTS; i++) {
+                agents[i] = world.add(new Item<Integer>(i), random.nextFloat() * size, random.nextFloat() * size, 16, 16);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.dongbat.jbump.test;
+
+import com.dongbat.jbump.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how {@link ParallelQueries} scales with the number of threads, on a crowd of agents that each look around
+ * with a rectangle and checks a few sight lines per frame. Every pool size gets the same queries and must find the same items as
+ * the single threaded {@link World} methods; the time of those is printed first as the baseline.
+ */
+public class BenchParallelQueries {
+    static final int AGENTS = 10000;
+    static final int SIGHTS_PER_AGENT = 4;
+    static final int FRAMES = 50;
+    static final int ROUNDS = 3;
+    static final float SIZE = 8000;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        World<Integer> world = new World<Integer>(64f);
+        float[] rects = new float[AGENTS * 4];
+        float[] sights = new float[AGENTS * SIGHTS_PER_AGENT * 4];
+        for (int i = 0; i < AGENTS; i++) {
+            float x = random.nextFloat() * SIZE, y = random.nextFloat() * SIZE;
+            world.add(new Item<Integer>(i), x, y, 16, 16);
+            rects[i * 4] = x - 192;
+            rects[i * 4 + 1] = y - 192;
+            rects[i * 4 + 2] = 400;
+            rects[i * 4 + 3] = 400;
+            for (int r = 0; r < SIGHTS_PER_AGENT; r++) {
+                int j = (i * SIGHTS_PER_AGENT + r) * 4;
+                double angle = random.nextDouble() * Math.PI * 2;
+                sights[j] = x + 8;
+                sights[j + 1] = y + 8;
+                sights[j + 2] = x + 8 + (float) Math.cos(angle) * 300;
+                sights[j + 3] = y + 8 + (float) Math.sin(angle) * 300;
+            }
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        BatchResult expectedRects = new BatchResult();
+        int sightCount = AGENTS * SIGHTS_PER_AGENT;
+        int[] expectedSightOffsets = new int[sightCount + 1];
+        ArrayList<Item> expectedSights = new ArrayList<Item>();
+        ArrayList<Item> items = new ArrayList<Item>();
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("round " + round);
+            long start = System.nanoTime();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                world.queryRects(rects, AGENTS, null, expectedRects);
+                expectedSights.clear();
+                for (int r = 0; r < sightCount; r++) {
+                    int j = r * 4;
+                    world.querySegment(sights[j], sights[j + 1], sights[j + 2], sights[j + 3], null, items);
+                    expectedSightOffsets[r] = expectedSights.size();
+                    expectedSights.addAll(items);
+                }
+                expectedSightOffsets[sightCount] = expectedSights.size();
+            }
+            long baseline = System.nanoTime() - start;
+            report("World", baseline, baseline);
+
+            for (int threads = 1; threads <= cores; threads = threads * 2 > cores && threads < cores ? cores : threads * 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                ParallelQueries<Integer> queries = new ParallelQueries<Integer>(world, pool);
+                BatchResult rectResult = new BatchResult(), sightResult = new BatchResult();
+                start = System.nanoTime();
+                for (int frame = 0; frame < FRAMES; frame++) {
+                    queries.queryRects(rects, AGENTS, null, rectResult);
+                    queries.querySegments(sights, sightCount, null, sightResult);
+                }
+                long time = System.nanoTime() - start;
+                pool.shutdown();
+                if (!same(expectedRects.offsets, expectedRects.items, rectResult) || !same(expectedSightOffsets, expectedSights.toArray(), sightResult)) {
+                    throw new IllegalStateException(threads + " threads found different items");
+                }
+                report(threads + " threads", time, baseline);
+            }
+        }
+    }
+
+    static void report(String name, long nanos, long baseline) {
+        System.out.println("  " + name + ": " + nanos / FRAMES / 1000 + " us/frame, " + Math.round(baseline * 100.0 / nanos) / 100.0 + "x");
+    }
+
+    static boolean same(int[] offsets, Object[] items, BatchResult result) {
+        for (int q = 0; q <= result.queryCount; q++) {
+            if (offsets[q] != result.offsets[q]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < result.size(); i++) {
+            if (items[i] != result.items[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
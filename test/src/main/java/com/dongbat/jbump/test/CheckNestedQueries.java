@@ -0,0 +1,211 @@
+package com.dongbat.jbump.test;
+
+import com.dongbat.jbump.*;
+import com.dongbat.jbump.util.IntArray;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks that a filter may run queries on the World it is called from, on every kind of index. Each item has a few
+ * queries of its own, whose results are worked out first without any nesting; then a batch of outer queries runs once
+ * with a plain filter and once with one that also runs the queries of every item it is asked about. Both the outer and
+ * the nested queries must find exactly what they find on their own. The id-based queries and checks are put through the
+ * same with an {@link IdCollisionFilter}.
+ */
+public class CheckNestedQueries {
+    static final int ITEMS = 3000;
+    static final int QUERIES = 500;
+    static final float SIZE = 2000;
+    static final float INNER_LENGTH = 150;
+    static final float OUTER_LENGTH = 600;
+    static final float AROUND = 100;
+    static final int NEAREST = 5;
+
+    static final CollisionFilter PICKY = new CollisionFilter() {
+        @Override
+        public Response filter(Item item, Item other) {
+            return (Integer) item.userData % 3 == 0 ? null : Response.cross;
+        }
+    };
+
+    static final IdCollisionFilter ID_PICKY = new IdCollisionFilter() {
+        @Override
+        public Response filter(int id, int other) {
+            return (other == NO_ID ? id : other) % 3 == 0 ? null : Response.slide;
+        }
+    };
+
+    public static void main(String[] args) {
+        check("GridIndex", new GridIndex(64));
+        check("DynamicTreeIndex", new DynamicTreeIndex());
+        check("HierarchicalGridIndex", new HierarchicalGridIndex(64));
+        checkIds("GridIndex", new GridIndex(64));
+        checkIds("DynamicTreeIndex", new DynamicTreeIndex());
+        checkIds("HierarchicalGridIndex", new HierarchicalGridIndex(64));
+    }
+
+    static void check(String name, SpatialIndex index) {
+        Random random = new Random(42);
+        World<Integer> world = new World<Integer>(index);
+        float[] segments = new float[ITEMS * 4];
+        for (int i = 0; i < ITEMS; i++) {
+            float x = random.nextFloat() * SIZE, y = random.nextFloat() * SIZE;
+            float w = 4 + random.nextFloat() * 36, h = 4 + random.nextFloat() * 36;
+            world.add(new Item<Integer>(i), x, y, w, h);
+            double angle = random.nextDouble() * Math.PI * 2;
+            segments[i * 4] = x + w / 2;
+            segments[i * 4 + 1] = y + h / 2;
+            segments[i * 4 + 2] = x + w / 2 + (float) Math.cos(angle) * INNER_LENGTH;
+            segments[i * 4 + 3] = y + h / 2 + (float) Math.sin(angle) * INNER_LENGTH;
+        }
+        Nesting nesting = new Nesting(world, segments);
+
+        RayHit hit = new RayHit();
+        ArrayList<Item> nearest = new ArrayList<Item>(), items = new ArrayList<Item>();
+        for (int q = 0; q < QUERIES; q++) {
+            float x1 = random.nextFloat() * SIZE, y1 = random.nextFloat() * SIZE;
+            double angle = random.nextDouble() * Math.PI * 2;
+            float dx = (float) Math.cos(angle) * OUTER_LENGTH, dy = (float) Math.sin(angle) * OUTER_LENGTH;
+
+            boolean clear = world.isSegmentClear(x1, y1, x1 + dx, y1 + dy, PICKY);
+            world.raycastFirst(x1, y1, dx, dy, PICKY, hit);
+            Item first = hit.item;
+
+            if (world.isSegmentClear(x1, y1, x1 + dx, y1 + dy, nesting) != clear) {
+                throw new IllegalStateException(name + ": nesting changed what isSegmentClear " + q + " found");
+            }
+            world.raycastFirst(x1, y1, dx, dy, nesting, hit);
+            if (hit.item != first) {
+                throw new IllegalStateException(name + ": nesting changed what raycastFirst " + q + " found");
+            }
+            world.queryNearest(x1, y1, NEAREST, PICKY, nearest);
+            if (!world.queryNearest(x1, y1, NEAREST, nesting, items).equals(nearest)) {
+                throw new IllegalStateException(name + ": nesting changed what queryNearest " + q + " found");
+            }
+        }
+        if (nesting.wrong > 0) {
+            throw new IllegalStateException(name + ": " + nesting.wrong + " of " + nesting.calls + " nested queries found something else");
+        }
+        System.out.println(name + ": " + nesting.calls + " nested queries, all found the same");
+    }
+
+    static void checkIds(String name, SpatialIndex index) {
+        Random random = new Random(42);
+        World<Integer> world = new World<Integer>(index);
+        float[] spots = new float[ITEMS * 2];
+        for (int i = 0; i < ITEMS; i++) {
+            world.add(i, random.nextFloat() * SIZE, random.nextFloat() * SIZE, 4 + random.nextFloat() * 36, 4 + random.nextFloat() * 36);
+            spots[i * 2] = random.nextFloat() * SIZE;
+            spots[i * 2 + 1] = random.nextFloat() * SIZE;
+        }
+        IdNesting nesting = new IdNesting(world, spots);
+
+        IntArray found = new IntArray(), ids = new IntArray();
+        Rect rect = new Rect();
+        for (int q = 0; q < QUERIES; q++) {
+            float x = random.nextFloat() * SIZE, y = random.nextFloat() * SIZE;
+            world.queryRect(x, y, OUTER_LENGTH / 4, OUTER_LENGTH / 4, ID_PICKY, found);
+            if (!world.queryRect(x, y, OUTER_LENGTH / 4, OUTER_LENGTH / 4, nesting, ids).equals(found)) {
+                throw new IllegalStateException(name + ": nesting changed what the id queryRect " + q + " found");
+            }
+
+            int id = random.nextInt(ITEMS);
+            world.getRect(id, rect);
+            float goalX = rect.x + (random.nextFloat() * 2 - 1) * OUTER_LENGTH / 4;
+            float goalY = rect.y + (random.nextFloat() * 2 - 1) * OUTER_LENGTH / 4;
+            Response.Result result = world.check(id, goalX, goalY, ID_PICKY);
+            float checkedX = result.goalX, checkedY = result.goalY;
+            int collisions = result.projectedCollisions.size();
+            result = world.check(id, goalX, goalY, nesting);
+            if (result.goalX != checkedX || result.goalY != checkedY || result.projectedCollisions.size() != collisions) {
+                throw new IllegalStateException(name + ": nesting changed where the id check " + q + " ended up");
+            }
+        }
+        if (nesting.wrong > 0) {
+            throw new IllegalStateException(name + ": " + nesting.wrong + " of " + nesting.calls + " nested id queries found something else");
+        }
+        System.out.println(name + ": " + nesting.calls + " nested id queries, all found the same");
+    }
+
+    /**
+     * Runs the queries of each item it is asked about, compares them to what they find on their own, and then decides
+     * like {@link #PICKY}. Next to the item's segment, it looks for the items around the end of that segment and for
+     * those nearest to it.
+     */
+    static class Nesting implements CollisionFilter {
+        final World<Integer> world;
+        final float[] segments;
+        final boolean[] clear;
+        final Item[] first;
+        final ArrayList<ArrayList<Item>> around = new ArrayList<ArrayList<Item>>(), nearest = new ArrayList<ArrayList<Item>>();
+        final RayHit hit = new RayHit();
+        final ArrayList<Item> items = new ArrayList<Item>();
+        int calls, wrong;
+
+        Nesting(World<Integer> world, float[] segments) {
+            this.world = world;
+            this.segments = segments;
+            clear = new boolean[ITEMS];
+            first = new Item[ITEMS];
+            for (int i = 0; i < ITEMS; i++) {
+                int j = i * 4;
+                clear[i] = world.isSegmentClear(segments[j], segments[j + 1], segments[j + 2], segments[j + 3], null);
+                world.raycastFirst(segments[j], segments[j + 1], segments[j + 2] - segments[j], segments[j + 3] - segments[j + 1], null, hit);
+                first[i] = hit.item;
+                around.add(world.queryRect(segments[j + 2] - AROUND / 2, segments[j + 3] - AROUND / 2, AROUND, AROUND, null, new ArrayList<Item>()));
+                nearest.add(world.queryNearest(segments[j + 2], segments[j + 3], NEAREST, null, new ArrayList<Item>()));
+            }
+        }
+
+        @Override
+        public Response filter(Item item, Item other) {
+            int i = (Integer) item.userData, j = i * 4;
+            calls++;
+            if (world.isSegmentClear(segments[j], segments[j + 1], segments[j + 2], segments[j + 3], null) != clear[i]) {
+                wrong++;
+            }
+            world.raycastFirst(segments[j], segments[j + 1], segments[j + 2] - segments[j], segments[j + 3] - segments[j + 1], null, hit);
+            if (hit.item != first[i]) {
+                wrong++;
+            }
+            if (!world.queryRect(segments[j + 2] - AROUND / 2, segments[j + 3] - AROUND / 2, AROUND, AROUND, null, items).equals(around.get(i))) {
+                wrong++;
+            }
+            if (!world.queryNearest(segments[j + 2], segments[j + 3], NEAREST, null, items).equals(nearest.get(i))) {
+                wrong++;
+            }
+            return PICKY.filter(item, other);
+        }
+    }
+
+    /**
+     * Runs an id query around the spot of each item it is asked about, compares it to what it finds on its own, and then
+     * decides like {@link #ID_PICKY}.
+     */
+    static class IdNesting implements IdCollisionFilter {
+        final World<Integer> world;
+        final float[] spots;
+        final ArrayList<IntArray> around = new ArrayList<IntArray>();
+        final IntArray ids = new IntArray();
+        int calls, wrong;
+
+        IdNesting(World<Integer> world, float[] spots) {
+            this.world = world;
+            this.spots = spots;
+            for (int i = 0; i < ITEMS; i++) {
+                around.add(world.queryRect(spots[i * 2] - AROUND / 2, spots[i * 2 + 1] - AROUND / 2, AROUND, AROUND, null, new IntArray()));
+            }
+        }
+
+        @Override
+        public Response filter(int id, int other) {
+            int i = other == NO_ID ? id : other;
+            calls++;
+            if (!world.queryRect(spots[i * 2] - AROUND / 2, spots[i * 2 + 1] - AROUND / 2, AROUND, AROUND, null, ids).equals(around.get(i))) {
+                wrong++;
+            }
+            return ID_PICKY.filter(id, other);
+        }
+    }
+}